@@ -0,0 +1,68 @@
+/*
+* MIT License
+* 
+* Copyright (c) 2016 Graeme Ingleby - graeme@ingleby.net
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy
+* of this software and associated documentation files (the "Software"), to deal
+* in the Software without restriction, including without limitation the rights
+* to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the Software is
+* furnished to do so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+* FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+* OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+* SOFTWARE.
+*/
+package net.ingleby.logmx.plugin;
+
+import java.io.IOException;
+import java.io.InputStream;
+import net.ingleby.logmx.plugin.source.SourceFile;
+import org.openide.filesystems.FileObject;
+
+/**
+ * SourceFile backed by an IDE FileObject
+ */
+final class FileObjectSource implements SourceFile {
+
+    private final FileObject fo;
+
+    FileObjectSource(FileObject fo) {
+        this.fo = fo;
+    }
+
+    @Override
+    public String getPath() {
+        return key(fo);
+    }
+
+    /**
+     * Key of a file in the method index and preview cache. The URL tells
+     * copies in different jar or src.zip roots apart, where getPath() is only
+     * the entry path (e.g. "java/util/List.java").
+     *
+     * @param fo
+     * @return
+     */
+    static String key(FileObject fo) {
+        return fo.toURL().toExternalForm();
+    }
+
+    @Override
+    public long lastModified() {
+        return fo.lastModified().getTime();
+    }
+
+    @Override
+    public InputStream openStream() throws IOException {
+        return fo.getInputStream();
+    }
+}
@@ -23,21 +23,17 @@
 */
 package net.ingleby.logmx.plugin;
 
-import com.lightyosft.logmx.gotosource.GotoSourceManager;
-import com.lightyosft.logmx.gotosource.GotoSourceUtils;
 import com.lightyosft.logmx.gotosource.business.PluginConfig;
 import com.lightyosft.logmx.gotosource.business.SourceLocation;
 import com.lightyosft.logmx.gotosource.business.SourcePreview;
-import com.lightyosft.logmx.gotosource.network.SocketListener;
 import com.lightyosft.logmx.gotosource.util.PluginLogger;
-import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.script.ScriptEngine;
 import javax.script.ScriptEngineManager;
 import javax.script.ScriptException;
 import javax.swing.SwingUtilities;
-import org.netbeans.api.java.classpath.GlobalPathRegistry;
 import org.openide.DialogDisplayer;
 import org.openide.NotifyDescriptor;
 import org.openide.cookies.LineCookie;
@@ -48,7 +44,13 @@ import org.openide.modules.ModuleInstall;
 import org.openide.text.Line;
 import org.openide.util.NbPreferences;
 import org.openide.windows.WindowManager;
+import net.ingleby.logmx.plugin.logging.AsyncLogChannel;
+import net.ingleby.logmx.plugin.network.ClientGotoSourceManager;
+import net.ingleby.logmx.plugin.network.GotoSourceBrokerNode;
+import net.ingleby.logmx.plugin.network.GotoSourceServer;
 import net.ingleby.logmx.plugin.options.LogMXGotoSourcePanel;
+import net.ingleby.logmx.plugin.source.SourcePaths;
+import net.ingleby.logmx.plugin.source.SourcePreviewer;
 import org.openide.util.RequestProcessor;
 
 public class Installer extends ModuleInstall {
@@ -57,7 +59,25 @@ public class Installer extends ModuleInstall {
 
     private static final Logger LOG = Logger.getLogger("logmx.netbeans");
 
-    private static SocketListener socketListener = null;
+    /**
+     * Request handling logs through this channel so it never waits on logger I/O
+     */
+    private static final AsyncLogChannel LOG_CHANNEL = new AsyncLogChannel(LOG, 256);
+
+    private static final RequestProcessor SERVER_RP = new RequestProcessor("LogMX GotoSource Server", 16, true);
+    private static final RequestProcessor BROKER_FANOUT_RP = new RequestProcessor("LogMX GotoSource Broker Fan-out", 16, true);
+
+    private static GotoSourceServer server = null;
+
+    private static GotoSourceBrokerNode brokerNode = null;
+
+    private static final WorkspaceMethodIndex METHOD_INDEX = new WorkspaceMethodIndex();
+
+    private static final int DEFAULT_RESOLVE_TIME_BUDGET = 200;
+
+    private static final SourceResolver RESOLVER = new SourceResolver(DEFAULT_RESOLVE_TIME_BUDGET);
+
+    private static final SourcePreviewer PREVIEWER = new SourcePreviewer(RESOLVER, METHOD_INDEX.getIndex(), LOG_CHANNEL, 128);
 
     /**
      * Start a GotoSource instance (stopping a previous one if necessary)
@@ -69,9 +89,16 @@ public class Installer extends ModuleInstall {
             public void run() {
                 synchronized (MUTEX) {
                     // safety
-                    if (socketListener != null) {
-                        socketListener.stop();
+                    if (server != null) {
+                        server.stop();
+                        server = null;
+                    }
+                    if (brokerNode != null) {
+                        brokerNode.stop();
+                        brokerNode = null;
                     }
+                    RESOLVER.clear();
+                    PREVIEWER.clearCache();
 
                     // 
                     /**
@@ -82,52 +109,66 @@ public class Installer extends ModuleInstall {
                             NbPreferences.forModule(LogMXGotoSourcePanel.class).getInt("listenPort", 7789),
                             NbPreferences.forModule(LogMXGotoSourcePanel.class).getBoolean("enabled", true)
                     );
+                    boolean brokerEnabled = NbPreferences.forModule(LogMXGotoSourcePanel.class).getBoolean("brokerEnabled", false);
+                    int peerTimeout = NbPreferences.forModule(LogMXGotoSourcePanel.class).getInt("brokerPeerTimeout", 750);
+                    RESOLVER.setTimeBudget(NbPreferences.forModule(LogMXGotoSourcePanel.class).getInt("resolveTimeBudget", DEFAULT_RESOLVE_TIME_BUDGET));
 
                     /**
                      * LogMX GotoSourceManager
                      */
-                    GotoSourceManager srcMgr = new GotoSourceManager() {
+                    ClientGotoSourceManager srcMgr = new ClientGotoSourceManager() {
                         @Override
                         public void goToSourceLocation(SourceLocation sl) {
-                            if (!openEditorAt(sl)) {
-                                displayGotoError(sl);
-                            }
+                            goToSourceLocation(sl, null);
                         }
 
                         @Override
                         public SourcePreview previewSourceLocation(SourceLocation sl) {
-                            return generatePreview(sl);
-                        }
-                    };
-
-                    /**
-                     * IDE Logger interface
-                     */
-                    PluginLogger logger = new PluginLogger() {
-                        @Override
-                        public void info(String string) {
-                            LOG.log(Level.INFO, string);
+                            return previewSourceLocation(sl, null);
                         }
 
                         @Override
-                        public void error(String string) {
-                            LOG.log(Level.SEVERE, string);
+                        public void goToSourceLocation(SourceLocation sl, String client) {
+                            if (!openEditorAt(sl, client)) {
+                                displayGotoError(sl);
+                            }
                         }
 
                         @Override
-                        public void error(String string, Throwable thrwbl) {
-                            LOG.log(Level.SEVERE, string, thrwbl);
+                        public SourcePreview previewSourceLocation(SourceLocation sl, String client) {
+                            return generatePreview(sl, client);
                         }
                     };
 
+                    /**
+                     * IDE Logger interface
+                     */
+                    PluginLogger logger = LOG_CHANNEL;
+
                     /**
                      * Create and start the socket listener
                      */
-                    socketListener = SocketListener.getInstance(srcMgr, logger);
-                    socketListener.setConfig(config);
-                    socketListener.stop();
-                    if (config.isEnabled()) {
-                        socketListener.start();
+                    if (config.isEnabled() && !brokerEnabled) {
+                        server = new GotoSourceServer(srcMgr, logger, SERVER_RP);
+                        try {
+                            server.start(config.getHostName(), config.getPort());
+                        } catch (IOException ex) {
+                            LOG.log(Level.SEVERE, "Unable to start GotoSource listener on " + config, ex);
+                            server = null;
+                        }
+                    }
+
+                    /**
+                     * Or share the LogMX port with other running IDEs
+                     */
+                    if (config.isEnabled() && brokerEnabled) {
+                        brokerNode = new GotoSourceBrokerNode(srcMgr, logger, SERVER_RP, BROKER_FANOUT_RP, config, peerTimeout);
+                        try {
+                            brokerNode.start();
+                        } catch (IOException ex) {
+                            LOG.log(Level.SEVERE, "Unable to join GotoSource broker group on " + config, ex);
+                            brokerNode = null;
+                        }
                     }
                 }
             }
@@ -143,9 +184,13 @@ public class Installer extends ModuleInstall {
             @Override
             public void run() {
                 synchronized (MUTEX) {
-                    if (socketListener != null) {
-                        socketListener.stop();
-                        socketListener = null;
+                    if (server != null) {
+                        server.stop();
+                        server = null;
+                    }
+                    if (brokerNode != null) {
+                        brokerNode.stop();
+                        brokerNode = null;
                     }
                 }
             }
@@ -157,6 +202,8 @@ public class Installer extends ModuleInstall {
      */
     @Override
     public void restored() {
+        LOG_CHANNEL.start();
+        METHOD_INDEX.start();
         startGotoSource();
     }
 
@@ -164,31 +211,31 @@ public class Installer extends ModuleInstall {
      * Generate a preview snippet for the specified file/line
      *
      * @param sl
+     * @param client address of the LogMX client, or null
      * @return
      */
-    private static SourcePreview generatePreview(SourceLocation sl) {
-        String filePath = sl.getPackageName().replace(".", "/") + "/" + sl.getFileName();
-        FileObject fo = GlobalPathRegistry.getDefault().findResource(filePath);
-        if (fo != null) {
-            try {
-                return GotoSourceUtils.previewFile(fo.getInputStream(), sl.getLineNumber());
-            } catch (FileNotFoundException ex) {
-                LOG.log(Level.SEVERE, "Unable to parse \"" + sl.getFileName() + "\"", ex);
-                return new SourcePreview(false, "Unable to parse \"" + sl.getFileName() + "\": " + ex.getLocalizedMessage(), 0);
-            }
-        }
-        return new SourcePreview(false, "Unable to find \"" + sl.getFullyQualifiedMethod() + "(" + sl.getFileName() + ":" + sl.getLineNumber() + ")\" in this workspace", 0);
+    private static SourcePreview generatePreview(SourceLocation sl, String client) {
+        return PREVIEWER.preview(sl, client);
     }
 
     /**
      * Displays a source file and moves to a specific line
      *
      * @param sl
+     * @param client address of the LogMX client, or null
      */
-    private static boolean openEditorAt(final SourceLocation sl) {
-        String filePath = sl.getPackageName().replace(".", "/") + "/" + sl.getFileName();
-        FileObject fo = GlobalPathRegistry.getDefault().findResource(filePath);
+    private static boolean openEditorAt(final SourceLocation sl, String client) {
+        String filePath = SourcePaths.sourcePath(sl);
+        FileObject fo = RESOLVER.resolve(filePath, client);
         if (fo != null) {
+            // missing or stale line numbers go to the method declaration
+            int resolved;
+            try {
+                resolved = PREVIEWER.resolveLine(new FileObjectSource(fo), sl);
+            } catch (IOException ex) {
+                resolved = sl.getLineNumber();
+            }
+            final int line = Math.max(resolved, 1);
             try {
                 DataObject d = DataObject.find(fo);
                 if (d != null) {
@@ -198,7 +245,7 @@ public class Installer extends ModuleInstall {
                         SwingUtilities.invokeLater(new Runnable() {
                             @Override
                             public void run() {
-                                Line l = lc.getLineSet().getOriginal(sl.getLineNumber() - 1);
+                                Line l = lc.getLineSet().getOriginal(line - 1);
                                 l.show(Line.ShowOpenType.OPEN, Line.ShowVisibilityType.FOCUS);
 
                                 // move main window to font...
@@ -209,9 +256,11 @@ public class Installer extends ModuleInstall {
                     }
                 }
             } catch (DataObjectNotFoundException ex) {
-                LOG.log(Level.SEVERE, "Unable to open \"" + sl.getFileName() + "\"", ex);
+                LOG_CHANNEL.log(AsyncLogChannel.CATEGORY_RESOLVE, Level.WARNING, "Unable to open \"" + sl.getFileName() + "\": " + ex.getLocalizedMessage(), null);
             }
+            return false;
         }
+        LOG_CHANNEL.miss(filePath, "Unable to find \"" + filePath + "\" in this workspace");
         return false;
     }
 
@@ -265,10 +314,14 @@ public class Installer extends ModuleInstall {
     @Override
     public void close() {
         stopGotoSource();
+        METHOD_INDEX.stop();
+        LOG_CHANNEL.stop();
     }
 
     @Override
     public void uninstalled() {
         stopGotoSource();
+        METHOD_INDEX.stop();
+        LOG_CHANNEL.stop();
     }    
 }
@@ -0,0 +1,312 @@
+/*
+* MIT License
+* 
+* Copyright (c) 2016 Graeme Ingleby - graeme@ingleby.net
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy
+* of this software and associated documentation files (the "Software"), to deal
+* in the Software without restriction, including without limitation the rights
+* to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the Software is
+* furnished to do so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+* FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+* OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+* SOFTWARE.
+*/
+package net.ingleby.logmx.plugin;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import net.ingleby.logmx.plugin.source.SourceFile;
+import net.ingleby.logmx.plugin.source.SourceRepository;
+import org.netbeans.api.java.classpath.GlobalPathRegistry;
+import org.netbeans.api.project.FileOwnerQuery;
+import org.netbeans.api.project.Project;
+import org.openide.filesystems.FileObject;
+import org.openide.loaders.DataObject;
+import org.openide.util.RequestProcessor;
+import org.openide.windows.TopComponent;
+
+/**
+ * Finds the source file for a relative path when several open projects (e.g.
+ * checkouts of different branches) contain a copy.
+ *
+ * All source roots are probed in parallel within a time budget and the
+ * candidates are ranked by recent editor activity, project affinity and file
+ * freshness. Per LogMX client the project of the first ambiguous choice ranks
+ * highest afterwards, so all frames of a stack trace come from the same
+ * checkout. Choices are remembered per client so the preview and the
+ * following goto agree and repeated frames skip the lookup; they are ranked
+ * again once the user switches to an editor of another project.
+ */
+final class SourceResolver implements SourceRepository {
+
+    private static final RequestProcessor RP = new RequestProcessor("LogMX Source Resolver", 8, true);
+
+    private static final int MAX_CHOICES = 512;
+    private static final int MAX_CLIENTS = 64;
+
+    private volatile int timeBudget;
+
+    private final Map<String, Choice> choices = new LinkedHashMap<String, Choice>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Choice> eldest) {
+            return size() > MAX_CHOICES;
+        }
+    };
+
+    // guarded by choices
+    private final Map<String, ClientState> clients = new LinkedHashMap<String, ClientState>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ClientState> eldest) {
+            return size() > MAX_CLIENTS;
+        }
+    };
+
+    /**
+     * @param timeBudget milliseconds allowed for probing the source roots
+     */
+    SourceResolver(int timeBudget) {
+        this.timeBudget = timeBudget;
+    }
+
+    /**
+     * @param timeBudget milliseconds allowed for probing the source roots
+     */
+    void setTimeBudget(int timeBudget) {
+        this.timeBudget = timeBudget;
+    }
+
+    /**
+     * @param path relative source path, e.g. "a/b/Foo.java"
+     * @param client address of the LogMX client, or null
+     * @return the best matching source file or null if there is none
+     */
+    FileObject resolve(String path, String client) {
+        String key = client + "|" + path;
+        Project activeProject = activeProject();
+        ClientState state;
+        int generation;
+        Project clientProject;
+        synchronized (choices) {
+            state = clients.get(client);
+            if (state == null) {
+                state = new ClientState();
+                clients.put(client, state);
+            }
+            // no editor active (e.g. the output window has focus) keeps the choices
+            if (activeProject != null && !activeProject.equals(state.activeProject)) {
+                state.activeProject = activeProject;
+                state.project = null;
+                state.generation++;
+            }
+            generation = state.generation;
+            clientProject = state.project;
+            Choice choice = choices.get(key);
+            if (choice != null && choice.file.isValid() && choice.generation == generation) {
+                return choice.file;
+            }
+        }
+
+        List<FileObject> candidates = findCandidates(path);
+        FileObject best;
+        if (candidates.isEmpty()) {
+            return null;
+        } else if (candidates.size() == 1) {
+            best = candidates.get(0);
+        } else {
+            best = rank(candidates, activeProject, clientProject);
+        }
+        synchronized (choices) {
+            if (candidates.size() > 1 && state.project == null && state.generation == generation) {
+                state.project = FileOwnerQuery.getOwner(best);
+            }
+            choices.put(key, new Choice(best, generation));
+        }
+        return best;
+    }
+
+    @Override
+    public SourceFile find(String path, String client) {
+        FileObject fo = resolve(path, client);
+        return fo == null ? null : new FileObjectSource(fo);
+    }
+
+    void clear() {
+        synchronized (choices) {
+            choices.clear();
+            clients.clear();
+        }
+    }
+
+    /**
+     * Probe every source root for the path in parallel
+     *
+     * @param path
+     * @return the copies found within the time budget, in source root order
+     */
+    private List<FileObject> findCandidates(final String path) {
+        List<FileObject> roots = new ArrayList<>(GlobalPathRegistry.getDefault().getSourceRoots());
+        if (roots.size() <= 1) {
+            FileObject fo = roots.isEmpty() ? null : roots.get(0).getFileObject(path);
+            return fo == null ? Collections.<FileObject>emptyList() : Collections.singletonList(fo);
+        }
+
+        CompletionService<FileObject> completion = new ExecutorCompletionService<>(RP);
+        List<Future<FileObject>> futures = new ArrayList<>(roots.size());
+        for (final FileObject root : roots) {
+            futures.add(completion.submit(new Callable<FileObject>() {
+                @Override
+                public FileObject call() throws Exception {
+                    return root.getFileObject(path);
+                }
+            }));
+        }
+
+        FileObject[] found = new FileObject[roots.size()];
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeBudget);
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+                long remaining = deadline - System.nanoTime();
+                Future<FileObject> f = remaining > 0 ? completion.poll(remaining, TimeUnit.NANOSECONDS) : null;
+                if (f == null) {
+                    break;
+                }
+                try {
+                    found[futures.indexOf(f)] = f.get();
+                } catch (ExecutionException e) {
+                    // root went away, ignore it
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            for (Future<FileObject> f : futures) {
+                f.cancel(true);
+            }
+        }
+
+        List<FileObject> candidates = new ArrayList<>();
+        for (FileObject fo : found) {
+            if (fo != null && !candidates.contains(fo)) {
+                candidates.add(fo);
+            }
+        }
+        if (candidates.isEmpty()) {
+            // budget exhausted before any root answered
+            FileObject fo = GlobalPathRegistry.getDefault().findResource(path);
+            if (fo != null) {
+                candidates.add(fo);
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Pick the candidate the user is most likely working on
+     *
+     * @param candidates
+     * @param activeProject project of the active editor, or null
+     * @param clientProject project the client's frames resolved to so far, or
+     * null
+     * @return
+     */
+    private static FileObject rank(List<FileObject> candidates, Project activeProject, Project clientProject) {
+        Set<FileObject> openFiles = new HashSet<>();
+        for (TopComponent tc : TopComponent.getRegistry().getOpened()) {
+            FileObject fo = fileOf(tc);
+            if (fo != null) {
+                openFiles.add(fo);
+            }
+        }
+
+        Set<Project> openProjects = new HashSet<>();
+        for (FileObject fo : openFiles) {
+            Project p = FileOwnerQuery.getOwner(fo);
+            if (p != null) {
+                openProjects.add(p);
+            }
+        }
+
+        FileObject best = null;
+        int bestScore = -1;
+        long bestModified = 0;
+        for (FileObject fo : candidates) {
+            int score = 0;
+            if (openFiles.contains(fo)) {
+                score += 4;
+            }
+            Project p = FileOwnerQuery.getOwner(fo);
+            if (p != null && p.equals(clientProject)) {
+                score += 8;
+            }
+            if (p != null && p.equals(activeProject)) {
+                score += 2;
+            } else if (p != null && openProjects.contains(p)) {
+                score += 1;
+            }
+            long modified = fo.lastModified().getTime();
+            if (score > bestScore || (score == bestScore && modified > bestModified)) {
+                best = fo;
+                bestScore = score;
+                bestModified = modified;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return the project owning the file of the active editor, or null
+     */
+    private static Project activeProject() {
+        TopComponent activated = TopComponent.getRegistry().getActivated();
+        FileObject activeFile = activated == null ? null : fileOf(activated);
+        return activeFile == null ? null : FileOwnerQuery.getOwner(activeFile);
+    }
+
+    private static FileObject fileOf(TopComponent tc) {
+        DataObject dob = tc.getLookup().lookup(DataObject.class);
+        return dob == null ? null : dob.getPrimaryFile();
+    }
+
+    private static final class Choice {
+
+        private final FileObject file;
+        private final int generation;
+
+        private Choice(FileObject file, int generation) {
+            this.file = file;
+            this.generation = generation;
+        }
+    }
+
+    /**
+     * What the ranking knows about one LogMX client; a new generation
+     * (after the user switched projects) invalidates its choices
+     */
+    private static final class ClientState {
+
+        private Project activeProject = null;
+        private Project project = null;
+        private int generation = 0;
+    }
+}
@@ -0,0 +1,246 @@
+/*
+* MIT License
+* 
+* Copyright (c) 2016 Graeme Ingleby - graeme@ingleby.net
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy
+* of this software and associated documentation files (the "Software"), to deal
+* in the Software without restriction, including without limitation the rights
+* to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the Software is
+* furnished to do so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+* FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+* OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+* SOFTWARE.
+*/
+package net.ingleby.logmx.plugin;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import net.ingleby.logmx.plugin.source.MethodIndex;
+import org.netbeans.api.java.classpath.ClassPath;
+import org.netbeans.api.java.classpath.GlobalPathRegistry;
+import org.netbeans.api.java.classpath.GlobalPathRegistryEvent;
+import org.netbeans.api.java.classpath.GlobalPathRegistryListener;
+import org.openide.filesystems.FileChangeAdapter;
+import org.openide.filesystems.FileChangeListener;
+import org.openide.filesystems.FileEvent;
+import org.openide.filesystems.FileObject;
+import org.openide.filesystems.FileRenameEvent;
+import org.openide.util.RequestProcessor;
+
+/**
+ * Method index over the source roots of the open projects.
+ *
+ * Only project sources (ClassPath.SOURCE) are indexed eagerly; JDK and
+ * library sources are indexed lazily by SourcePreviewer when a frame resolves
+ * to them.
+ *
+ * Built in the background when the module starts and kept current by listening
+ * to the source roots, so resolving a frame by class + method is normally a
+ * single lookup (SourcePreviewer re-scans a file that changed since it was
+ * indexed).
+ */
+final class WorkspaceMethodIndex {
+
+    private static final RequestProcessor RP = new RequestProcessor("LogMX Method Index", 1, true);
+
+    private final MethodIndex index = new MethodIndex();
+
+    private final Set<FileObject> roots = new HashSet<>();
+
+    private volatile boolean stopped = true;
+
+    private final FileChangeListener fileListener = new FileChangeAdapter() {
+        @Override
+        public void fileDataCreated(FileEvent fe) {
+            scheduleIndex(fe.getFile());
+        }
+
+        @Override
+        public void fileChanged(FileEvent fe) {
+            scheduleIndex(fe.getFile());
+        }
+
+        @Override
+        public void fileDeleted(FileEvent fe) {
+            if (fe.getFile().isFolder()) {
+                index.removeAll(FileObjectSource.key(fe.getFile()));
+            } else {
+                index.remove(FileObjectSource.key(fe.getFile()));
+            }
+        }
+
+        @Override
+        public void fileRenamed(FileRenameEvent fe) {
+            FileObject parent = fe.getFile().getParent();
+            if (parent != null) {
+                String oldName = fe.getName() + (fe.getExt().isEmpty() ? "" : "." + fe.getExt());
+                String parentKey = FileObjectSource.key(parent);
+                String oldKey = (parentKey.endsWith("/") ? parentKey : parentKey + "/") + encode(oldName);
+                index.remove(oldKey);
+                index.removeAll(oldKey);
+            }
+            if (fe.getFile().isFolder()) {
+                scheduleIndexFolder(fe.getFile());
+            } else {
+                scheduleIndex(fe.getFile());
+            }
+        }
+    };
+
+    private final GlobalPathRegistryListener pathListener = new GlobalPathRegistryListener() {
+        @Override
+        public void pathsAdded(GlobalPathRegistryEvent event) {
+            scheduleRefreshRoots();
+        }
+
+        @Override
+        public void pathsRemoved(GlobalPathRegistryEvent event) {
+            scheduleRefreshRoots();
+        }
+    };
+
+    /**
+     * Start indexing the open source roots in the background
+     */
+    void start() {
+        stopped = false;
+        GlobalPathRegistry.getDefault().addGlobalPathRegistryListener(pathListener);
+        scheduleRefreshRoots();
+    }
+
+    /**
+     * Stop listening and drop the index
+     */
+    void stop() {
+        GlobalPathRegistry.getDefault().removeGlobalPathRegistryListener(pathListener);
+        synchronized (roots) {
+            // tasks still queued on RP do nothing from now on
+            stopped = true;
+            for (FileObject root : roots) {
+                root.removeRecursiveListener(fileListener);
+            }
+            roots.clear();
+        }
+        index.clear();
+    }
+
+    MethodIndex getIndex() {
+        return index;
+    }
+
+    private void scheduleIndex(final FileObject fo) {
+        if (!"java".equals(fo.getExt())) {
+            return;
+        }
+        RP.post(new Runnable() {
+            @Override
+            public void run() {
+                index(fo);
+            }
+        });
+    }
+
+    private void scheduleIndexFolder(final FileObject folder) {
+        RP.post(new Runnable() {
+            @Override
+            public void run() {
+                indexFolder(folder);
+            }
+        });
+    }
+
+    private void scheduleRefreshRoots() {
+        RP.post(new Runnable() {
+            @Override
+            public void run() {
+                refreshRoots();
+            }
+        });
+    }
+
+    /**
+     * Start indexing new source roots and forget roots that went away
+     */
+    private void refreshRoots() {
+        Set<FileObject> current = new HashSet<>();
+        for (ClassPath cp : GlobalPathRegistry.getDefault().getPaths(ClassPath.SOURCE)) {
+            current.addAll(Arrays.asList(cp.getRoots()));
+        }
+        Set<FileObject> added = new HashSet<>();
+        synchronized (roots) {
+            if (stopped) {
+                return;
+            }
+            for (Iterator<FileObject> it = roots.iterator(); it.hasNext();) {
+                FileObject root = it.next();
+                if (!current.contains(root)) {
+                    root.removeRecursiveListener(fileListener);
+                    index.removeAll(FileObjectSource.key(root));
+                    it.remove();
+                }
+            }
+            for (FileObject root : current) {
+                if (roots.add(root)) {
+                    root.addRecursiveListener(fileListener);
+                    added.add(root);
+                }
+            }
+        }
+        for (FileObject root : added) {
+            indexFolder(root);
+        }
+    }
+
+    private void indexFolder(FileObject folder) {
+        for (FileObject child : folder.getChildren()) {
+            if (stopped) {
+                return;
+            }
+            if (child.isFolder()) {
+                indexFolder(child);
+            } else if ("java".equals(child.getExt()) && !index.isCurrent(FileObjectSource.key(child), child.lastModified().getTime())) {
+                index(child);
+            }
+        }
+    }
+
+    private void index(FileObject fo) {
+        String key = FileObjectSource.key(fo);
+        if (stopped || !fo.isValid()) {
+            index.remove(key);
+            return;
+        }
+        try {
+            index.put(key, fo.lastModified().getTime(), fo.asText());
+        } catch (IOException ex) {
+            index.remove(key);
+        }
+    }
+
+    /**
+     * @param name
+     * @return the name as it appears in a file URL
+     */
+    private static String encode(String name) {
+        try {
+            return new URI(null, null, name, null).getRawPath();
+        } catch (URISyntaxException ex) {
+            return name;
+        }
+    }
+}
@@ -0,0 +1,235 @@
+/*
+* MIT License
+* 
+* Copyright (c) 2016 Graeme Ingleby - graeme@ingleby.net
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy
+* of this software and associated documentation files (the "Software"), to deal
+* in the Software without restriction, including without limitation the rights
+* to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the Software is
+* furnished to do so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+* FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+* OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+* SOFTWARE.
+*/
+package net.ingleby.logmx.plugin.headless;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import net.ingleby.logmx.plugin.source.SourceFile;
+import net.ingleby.logmx.plugin.source.SourceRepository;
+
+/**
+ * In-memory index of the Java sources in plain directories and source jars.
+ *
+ * rescan() walks all locations and swaps in a new relative path to file map;
+ * lookups are a single map access. When several locations contain the same
+ * path the first configured location wins. A source jar that changed or went
+ * away is closed one rescan after it was replaced, so previews still reading
+ * from the old map are not cut off.
+ */
+public class DirectorySourceRepository implements SourceRepository, Closeable {
+
+    private final List<File> locations;
+
+    private volatile Map<String, SourceFile> files = Collections.emptyMap();
+
+    // open source jars, reopened only when the jar changes
+    private Map<File, Jar> jars = new HashMap<>();
+
+    // jars replaced by the last rescan, closed by the next one
+    private List<Jar> retired = new ArrayList<>();
+
+    /**
+     * @param locations source directories and jar/zip files
+     */
+    public DirectorySourceRepository(List<File> locations) {
+        this.locations = locations;
+    }
+
+    @Override
+    public SourceFile find(String path, String client) {
+        return files.get(path);
+    }
+
+    /**
+     * @return every indexed source file
+     */
+    public Collection<SourceFile> getFiles() {
+        return files.values();
+    }
+
+    /**
+     * Rebuild the index from the configured locations
+     *
+     * @throws IOException if a source jar cannot be read
+     */
+    public synchronized void rescan() throws IOException {
+        Map<String, SourceFile> scanned = new HashMap<>();
+        Map<File, Jar> opened = new HashMap<>();
+        try {
+            for (File location : locations) {
+                if (location.isDirectory()) {
+                    scanDirectory(location, "", scanned);
+                } else if (location.isFile()) {
+                    scanJar(location, scanned, opened);
+                }
+            }
+        } catch (IOException e) {
+            for (Jar jar : opened.values()) {
+                if (!jars.containsValue(jar)) {
+                    closeQuietly(jar);
+                }
+            }
+            throw e;
+        }
+        files = scanned;
+
+        for (Jar jar : retired) {
+            closeQuietly(jar);
+        }
+        retired = new ArrayList<>();
+        for (Jar jar : jars.values()) {
+            if (!opened.containsValue(jar)) {
+                retired.add(jar);
+            }
+        }
+        jars = opened;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        files = Collections.emptyMap();
+        for (Jar jar : retired) {
+            closeQuietly(jar);
+        }
+        retired.clear();
+        for (Jar jar : jars.values()) {
+            jar.zip.close();
+        }
+        jars.clear();
+    }
+
+    private static void scanDirectory(File dir, String prefix, Map<String, SourceFile> scanned) {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            String path = prefix + child.getName();
+            if (child.isDirectory()) {
+                scanDirectory(child, path + "/", scanned);
+            } else if (path.endsWith(".java") && !scanned.containsKey(path)) {
+                scanned.put(path, new DirectoryFile(child));
+            }
+        }
+    }
+
+    private void scanJar(File file, Map<String, SourceFile> scanned, Map<File, Jar> opened) throws IOException {
+        Jar jar = jars.get(file);
+        if (jar == null || jar.stamp != file.lastModified()) {
+            jar = new Jar(new ZipFile(file), file.lastModified());
+        }
+        opened.put(file, jar);
+        Enumeration<? extends ZipEntry> entries = jar.zip.entries();
+        while (entries.hasMoreElements()) {
+            ZipEntry entry = entries.nextElement();
+            String path = entry.getName();
+            if (!entry.isDirectory() && path.endsWith(".java") && !scanned.containsKey(path)) {
+                scanned.put(path, new JarFile(file, jar, entry));
+            }
+        }
+    }
+
+    private static void closeQuietly(Jar jar) {
+        try {
+            jar.zip.close();
+        } catch (IOException e) {
+            // nothing reads from it any more
+        }
+    }
+
+    private static final class Jar {
+
+        private final ZipFile zip;
+        private final long stamp;
+
+        private Jar(ZipFile zip, long stamp) {
+            this.zip = zip;
+            this.stamp = stamp;
+        }
+    }
+
+    private static final class DirectoryFile implements SourceFile {
+
+        private final File file;
+
+        private DirectoryFile(File file) {
+            this.file = file;
+        }
+
+        @Override
+        public String getPath() {
+            return file.getPath();
+        }
+
+        @Override
+        public long lastModified() {
+            return file.lastModified();
+        }
+
+        @Override
+        public InputStream openStream() throws IOException {
+            return new FileInputStream(file);
+        }
+    }
+
+    private static final class JarFile implements SourceFile {
+
+        private final File file;
+        private final Jar jar;
+        private final ZipEntry entry;
+
+        private JarFile(File file, Jar jar, ZipEntry entry) {
+            this.file = file;
+            this.jar = jar;
+            this.entry = entry;
+        }
+
+        @Override
+        public String getPath() {
+            return file.getPath() + "!/" + entry.getName();
+        }
+
+        @Override
+        public long lastModified() {
+            return jar.stamp;
+        }
+
+        @Override
+        public InputStream openStream() throws IOException {
+            return jar.zip.getInputStream(entry);
+        }
+    }
+}
@@ -0,0 +1,250 @@
+/*
+* MIT License
+* 
+* Copyright (c) 2016 Graeme Ingleby - graeme@ingleby.net
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy
+* of this software and associated documentation files (the "Software"), to deal
+* in the Software without restriction, including without limitation the rights
+* to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the Software is
+* furnished to do so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+* FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+* OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+* SOFTWARE.
+*/
+package net.ingleby.logmx.plugin.headless;
+
+import com.lightyosft.logmx.gotosource.GotoSourceManager;
+import com.lightyosft.logmx.gotosource.business.SourceLocation;
+import com.lightyosft.logmx.gotosource.business.SourcePreview;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import net.ingleby.logmx.plugin.logging.AsyncLogChannel;
+import net.ingleby.logmx.plugin.network.GotoSourceServer;
+import net.ingleby.logmx.plugin.source.MethodIndex;
+import net.ingleby.logmx.plugin.source.SourceFile;
+import net.ingleby.logmx.plugin.source.SourcePreviewer;
+
+/**
+ * GotoSource server without an IDE.
+ *
+ * Serves LogMX previews for a set of source directories and source jars, e.g.
+ * from a shared box for a whole team. Sources are indexed in memory and
+ * rescanned periodically; goto requests are ignored as there is no editor to
+ * open.
+ *
+ * <pre>
+ * java -cp net-ingleby-logmx-plugin.jar:logmx-goto-source.jar \
+ *     net.ingleby.logmx.plugin.headless.HeadlessGotoSource \
+ *     [-address 127.0.0.1] [-port 7789] [-threads 8] [-rescan 60] dir-or-jar...
+ * </pre>
+ */
+public class HeadlessGotoSource {
+
+    private static final Logger LOG = Logger.getLogger("logmx.headless");
+
+    private final String address;
+    private final int port;
+    private final int rescanSeconds;
+
+    private final AsyncLogChannel log = new AsyncLogChannel(LOG, 1024);
+    private final DirectorySourceRepository repository;
+    private final MethodIndex index = new MethodIndex();
+    private final SourcePreviewer previewer;
+    private final ExecutorService executor;
+    private final ScheduledExecutorService scanner;
+    private final GotoSourceServer server;
+
+    /**
+     * @param address listen address
+     * @param port listen port (0 for any free port)
+     * @param locations source directories and jars
+     * @param threads number of request handling threads
+     * @param rescanSeconds interval between rescans of the locations
+     */
+    public HeadlessGotoSource(String address, int port, List<File> locations, int threads, int rescanSeconds) {
+        this.address = address;
+        this.port = port;
+        this.rescanSeconds = rescanSeconds;
+        this.repository = new DirectorySourceRepository(locations);
+        this.previewer = new SourcePreviewer(repository, index, log, 1024);
+        this.executor = Executors.newFixedThreadPool(threads, daemonThreads("LogMXGotoSourceHeadless-"));
+        // rescans and indexing never compete with (or wait for) connections
+        this.scanner = Executors.newSingleThreadScheduledExecutor(daemonThreads("LogMXGotoSourceHeadlessScan-"));
+
+        GotoSourceManager manager = new GotoSourceManager() {
+            @Override
+            public void goToSourceLocation(SourceLocation sl) {
+                log.log(AsyncLogChannel.CATEGORY_PLUGIN, Level.INFO, "Ignoring goto " + sl.getFullyQualifiedMethod() + " (no IDE)", null);
+            }
+
+            @Override
+            public SourcePreview previewSourceLocation(SourceLocation sl) {
+                return previewer.preview(sl, null);
+            }
+        };
+        this.server = new GotoSourceServer(manager, log, executor);
+    }
+
+    /**
+     * Index the sources and start listening
+     *
+     * @throws IOException if the sources cannot be read or the address cannot
+     * be bound
+     */
+    public void start() throws IOException {
+        log.start();
+        rescan();
+        log.info("Found " + repository.getFiles().size() + " source files");
+        server.start(address, port);
+        scanner.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    rescan();
+                } catch (IOException ex) {
+                    log.error("Unable to rescan sources: " + ex.getMessage());
+                }
+            }
+        }, rescanSeconds, rescanSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Pick up added, changed and removed source files now instead of at the
+     * next periodic rescan
+     *
+     * @throws IOException if a source jar cannot be read
+     */
+    public synchronized void rescan() throws IOException {
+        repository.rescan();
+        Set<String> paths = new HashSet<>();
+        for (SourceFile file : repository.getFiles()) {
+            paths.add(file.getPath());
+        }
+        index.retainAll(paths);
+        indexMethods();
+    }
+
+    public void stop() {
+        server.stop();
+        scanner.shutdownNow();
+        executor.shutdownNow();
+        try {
+            repository.close();
+        } catch (IOException ex) {
+            // shutting down
+        }
+        log.stop();
+    }
+
+    /**
+     * @return the bound listen address or null if not running
+     */
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    /**
+     * Bring the method index up to date in the background
+     */
+    private void indexMethods() {
+        scanner.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (SourceFile file : repository.getFiles()) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        return;
+                    }
+                    try {
+                        previewer.index(file);
+                    } catch (IOException ex) {
+                        // indexed on demand when previewed
+                    }
+                }
+            }
+        });
+    }
+
+    private static ThreadFactory daemonThreads(final String prefix) {
+        return new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, prefix + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+
+    public static void main(String[] args) throws Exception {
+        String address = "127.0.0.1";
+        int port = 7789;
+        int threads = 8;
+        int rescan = 60;
+        List<File> locations = new ArrayList<>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "-address":
+                        address = args[++i];
+                        break;
+                    case "-port":
+                        port = Integer.parseInt(args[++i]);
+                        break;
+                    case "-threads":
+                        threads = Integer.parseInt(args[++i]);
+                        break;
+                    case "-rescan":
+                        rescan = Integer.parseInt(args[++i]);
+                        break;
+                    default:
+                        locations.add(new File(args[i]));
+                        break;
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            locations.clear();
+        }
+        if (locations.isEmpty() || threads < 1 || rescan < 1) {
+            System.err.println("Usage: HeadlessGotoSource [-address host] [-port port] [-threads n] [-rescan seconds] <source dir or jar>...");
+            System.exit(2);
+        }
+
+        final HeadlessGotoSource headless = new HeadlessGotoSource(address, port, locations, threads, rescan);
+        final CountDownLatch stopped = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                headless.stop();
+                stopped.countDown();
+            }
+        });
+        headless.start();
+        stopped.await();
+    }
+}
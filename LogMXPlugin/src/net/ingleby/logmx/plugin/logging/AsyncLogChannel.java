@@ -0,0 +1,391 @@
+/*
+* MIT License
+* 
+* Copyright (c) 2016 Graeme Ingleby - graeme@ingleby.net
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy
+* of this software and associated documentation files (the "Software"), to deal
+* in the Software without restriction, including without limitation the rights
+* to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the Software is
+* furnished to do so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+* FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+* OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+* SOFTWARE.
+*/
+package net.ingleby.logmx.plugin.logging;
+
+import com.lightyosft.logmx.gotosource.util.PluginLogger;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * Asynchronous, bounded log channel in front of a java.util.logging Logger.
+ *
+ * Callers (the socket listener threads) only sample, rate limit and copy the
+ * message into a fixed size ring buffer; a daemon thread publishes to the
+ * Logger. When the buffer is full the oldest entries are overwritten, so a burst
+ * of requests never waits on logger I/O. Repeated misses for the same source
+ * are counted and reported in one summary line per interval instead of one
+ * line per request.
+ */
+public final class AsyncLogChannel implements PluginLogger {
+
+    /**
+     * Listener lifecycle and protocol errors (PluginLogger calls)
+     */
+    public static final String CATEGORY_PLUGIN = "plugin";
+
+    /**
+     * Problems reading or opening a source file that was found
+     */
+    public static final String CATEGORY_RESOLVE = "resolve";
+
+    /**
+     * Frames that could not be found in the workspace
+     */
+    public static final String CATEGORY_MISS = "miss";
+
+    private static final long SUMMARY_INTERVAL = 60000;
+    private static final int MAX_MISS_KEYS = 256;
+    private static final int SUMMARY_TOP_KEYS = 3;
+
+    private static final Comparator<Map.Entry<String, Integer>> BY_COUNT = new Comparator<Map.Entry<String, Integer>>() {
+        @Override
+        public int compare(Map.Entry<String, Integer> a, Map.Entry<String, Integer> b) {
+            return Integer.compare(b.getValue(), a.getValue());
+        }
+    };
+
+    private final Logger sink;
+    private final Entry[] ring;
+    private int head = 0;
+    private int count = 0;
+    private long overwritten = 0;
+
+    private final Map<String, Limit> limits = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AtomicInteger> misses = new ConcurrentHashMap<>();
+    private final AtomicInteger otherMisses = new AtomicInteger();
+
+    private Thread drainThread = null;
+    private boolean running = false;
+
+    /**
+     * @param sink
+     * @param capacity maximum number of queued entries
+     */
+    public AsyncLogChannel(Logger sink, int capacity) {
+        this.sink = sink;
+        this.ring = new Entry[capacity];
+        setLimit(CATEGORY_PLUGIN, 1, 120);
+        setLimit(CATEGORY_RESOLVE, 1, 30);
+        setLimit(CATEGORY_MISS, 1, 30);
+    }
+
+    /**
+     * Configure sampling and rate limiting of a category
+     *
+     * @param category
+     * @param sampleEvery log one in every sampleEvery messages
+     * @param perMinute maximum number of messages logged per minute
+     */
+    public void setLimit(String category, int sampleEvery, int perMinute) {
+        limits.put(category, new Limit(Math.max(sampleEvery, 1), perMinute));
+    }
+
+    /**
+     * Start the publishing thread
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        drainThread = new Thread("LogMXGotoSourceLog") {
+            @Override
+            public void run() {
+                drain();
+            }
+        };
+        drainThread.setDaemon(true);
+        drainThread.start();
+    }
+
+    /**
+     * Stop the publishing thread after flushing queued entries and summaries.
+     * Messages logged while stopped are published synchronously.
+     */
+    public void stop() {
+        Thread t;
+        synchronized (this) {
+            if (!running) {
+                return;
+            }
+            running = false;
+            t = drainThread;
+            drainThread = null;
+            notifyAll();
+        }
+        try {
+            t.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void info(String message) {
+        log(CATEGORY_PLUGIN, Level.INFO, message, null);
+    }
+
+    @Override
+    public void error(String message) {
+        log(CATEGORY_PLUGIN, Level.SEVERE, message, null);
+    }
+
+    @Override
+    public void error(String message, Throwable thrown) {
+        log(CATEGORY_PLUGIN, Level.SEVERE, message, thrown);
+    }
+
+    /**
+     * Log a message if the category's sampling and rate limit allow it
+     *
+     * @param category
+     * @param level
+     * @param message
+     * @param thrown may be null
+     */
+    public void log(String category, Level level, String message, Throwable thrown) {
+        if (!sink.isLoggable(level)) {
+            return;
+        }
+        Limit limit = limits.get(category);
+        if (limit != null && !limit.allow(System.currentTimeMillis())) {
+            return;
+        }
+        offer(new Entry(level, message, thrown));
+    }
+
+    /**
+     * Record that a frame could not be resolved. The first miss for a key in
+     * each summary interval is logged, repeats are only counted.
+     *
+     * @param key what was missing (e.g. the source path)
+     * @param message logged for the first miss
+     */
+    public void miss(String key, String message) {
+        AtomicInteger counter = misses.get(key);
+        if (counter == null) {
+            if (misses.size() >= MAX_MISS_KEYS) {
+                otherMisses.incrementAndGet();
+                return;
+            }
+            AtomicInteger created = new AtomicInteger();
+            counter = misses.putIfAbsent(key, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        if (counter.incrementAndGet() == 1) {
+            log(CATEGORY_MISS, Level.INFO, message, null);
+        }
+    }
+
+    private void offer(Entry entry) {
+        synchronized (this) {
+            if (running) {
+                if (count == ring.length) {
+                    ring[head] = entry;
+                    head = (head + 1) % ring.length;
+                    overwritten++;
+                } else {
+                    ring[(head + count) % ring.length] = entry;
+                    count++;
+                }
+                notifyAll();
+                return;
+            }
+        }
+        publish(entry);
+    }
+
+    /**
+     * Publishing thread: empties the ring buffer and writes periodic summaries
+     */
+    private void drain() {
+        long nextSummary = System.currentTimeMillis() + SUMMARY_INTERVAL;
+        List<Entry> batch = new ArrayList<>();
+        boolean active = true;
+        while (active) {
+            long lost;
+            synchronized (this) {
+                long wait = nextSummary - System.currentTimeMillis();
+                if (running && count == 0 && wait > 0) {
+                    try {
+                        wait(wait);
+                    } catch (InterruptedException e) {
+                        running = false;
+                    }
+                }
+                while (count > 0) {
+                    batch.add(ring[head]);
+                    ring[head] = null;
+                    head = (head + 1) % ring.length;
+                    count--;
+                }
+                lost = overwritten;
+                overwritten = 0;
+                active = running;
+            }
+
+            if (lost > 0) {
+                sink.log(Level.WARNING, "{0} log messages dropped (log buffer full)", lost);
+            }
+            for (Entry entry : batch) {
+                publish(entry);
+            }
+            batch.clear();
+
+            if (!active || System.currentTimeMillis() >= nextSummary) {
+                summarize();
+                nextSummary = System.currentTimeMillis() + SUMMARY_INTERVAL;
+            }
+        }
+    }
+
+    /**
+     * Report suppressed messages and repeated misses since the last summary as
+     * a single line: the totals plus the most frequently missed keys
+     */
+    private void summarize() {
+        StringBuilder suppressed = new StringBuilder();
+        for (Map.Entry<String, Limit> e : limits.entrySet()) {
+            long n = e.getValue().takeSuppressed();
+            if (n > 0) {
+                suppressed.append(suppressed.length() == 0 ? "" : ", ").append(e.getKey()).append(' ').append(n);
+            }
+        }
+
+        List<Map.Entry<String, Integer>> repeated = new ArrayList<>();
+        long repeats = 0;
+        for (Map.Entry<String, AtomicInteger> e : misses.entrySet()) {
+            // resetting (rather than removing) loses no concurrent increment;
+            // the next miss of the key is logged again as the first one
+            int n = e.getValue().getAndSet(0);
+            if (n == 0) {
+                // idle for a whole interval, free the slot
+                misses.remove(e.getKey(), e.getValue());
+            } else if (n > 1) {
+                repeated.add(new AbstractMap.SimpleEntry<>(e.getKey(), n - 1));
+                repeats += n - 1;
+            }
+        }
+        int other = otherMisses.getAndSet(0);
+
+        if (suppressed.length() == 0 && repeats == 0 && other == 0) {
+            return;
+        }
+        StringBuilder line = new StringBuilder("GotoSource log summary:");
+        if (repeats > 0) {
+            Collections.sort(repeated, BY_COUNT);
+            line.append(' ').append(repeats).append(" repeated misses of ").append(repeated.size()).append(" sources (");
+            for (int i = 0; i < Math.min(SUMMARY_TOP_KEYS, repeated.size()); i++) {
+                Map.Entry<String, Integer> e = repeated.get(i);
+                line.append(i == 0 ? "" : ", ").append('"').append(e.getKey()).append("\" x").append(e.getValue());
+            }
+            line.append(repeated.size() > SUMMARY_TOP_KEYS ? ", ...)" : ")");
+        }
+        if (other > 0) {
+            line.append(repeats > 0 ? "," : "").append(' ').append(other).append(" misses not itemized");
+        }
+        if (suppressed.length() > 0) {
+            line.append(repeats > 0 || other > 0 ? ";" : "").append(" suppressed messages: ").append(suppressed);
+        }
+        sink.log(Level.INFO, line.toString());
+    }
+
+    private void publish(Entry entry) {
+        LogRecord record = new LogRecord(entry.level, entry.message);
+        record.setMillis(entry.millis);
+        record.setThrown(entry.thrown);
+        record.setLoggerName(sink.getName());
+        record.setSourceClassName(sink.getName());
+        record.setSourceMethodName(null);
+        sink.log(record);
+    }
+
+    private static final class Entry {
+
+        private final Level level;
+        private final String message;
+        private final Throwable thrown;
+        private final long millis;
+
+        private Entry(Level level, String message, Throwable thrown) {
+            this.level = level;
+            this.message = message;
+            this.thrown = thrown;
+            this.millis = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Per category sampling and fixed window rate limit
+     */
+    private static final class Limit {
+
+        private final int sampleEvery;
+        private final int perMinute;
+        private long seen = 0;
+        private long windowStart = 0;
+        private int windowCount = 0;
+        private long suppressed = 0;
+
+        private Limit(int sampleEvery, int perMinute) {
+            this.sampleEvery = sampleEvery;
+            this.perMinute = perMinute;
+        }
+
+        private synchronized boolean allow(long now) {
+            if (seen++ % sampleEvery != 0) {
+                suppressed++;
+                return false;
+            }
+            if (now - windowStart >= 60000) {
+                windowStart = now;
+                windowCount = 0;
+            }
+            if (windowCount >= perMinute) {
+                suppressed++;
+                return false;
+            }
+            windowCount++;
+            return true;
+        }
+
+        private synchronized long takeSuppressed() {
+            long result = suppressed;
+            suppressed = 0;
+            return result;
+        }
+    }
+}
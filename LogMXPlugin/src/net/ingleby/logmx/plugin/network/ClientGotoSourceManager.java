@@ -0,0 +1,50 @@
+/*
+* MIT License
+* 
+* Copyright (c) 2016 Graeme Ingleby - graeme@ingleby.net
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy
+* of this software and associated documentation files (the "Software"), to deal
+* in the Software without restriction, including without limitation the rights
+* to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the Software is
+* furnished to do so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+* FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+* OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+* SOFTWARE.
+*/
+package net.ingleby.logmx.plugin.network;
+
+import com.lightyosft.logmx.gotosource.GotoSourceManager;
+import com.lightyosft.logmx.gotosource.business.SourceLocation;
+import com.lightyosft.logmx.gotosource.business.SourcePreview;
+
+/**
+ * A GotoSourceManager that is told which LogMX client a request came from.
+ *
+ * GotoSourceServer (and a broker forwarding to its peers) pass the address of
+ * the original client, so an IDE can keep its answers consistent per client.
+ */
+public interface ClientGotoSourceManager extends GotoSourceManager {
+
+    /**
+     * @param sl
+     * @param client address of the LogMX client
+     */
+    void goToSourceLocation(SourceLocation sl, String client);
+
+    /**
+     * @param sl
+     * @param client address of the LogMX client
+     * @return
+     */
+    SourcePreview previewSourceLocation(SourceLocation sl, String client);
+}
@@ -0,0 +1,314 @@
+/*
+* MIT License
+* 
+* Copyright (c) 2016 Graeme Ingleby - graeme@ingleby.net
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy
+* of this software and associated documentation files (the "Software"), to deal
+* in the Software without restriction, including without limitation the rights
+* to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the Software is
+* furnished to do so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+* FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+* OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+* SOFTWARE.
+*/
+package net.ingleby.logmx.plugin.network;
+
+import com.lightyosft.logmx.gotosource.GotoSourceManager;
+import com.lightyosft.logmx.gotosource.business.SourceLocation;
+import com.lightyosft.logmx.gotosource.business.SourcePreview;
+import com.lightyosft.logmx.gotosource.util.PluginLogger;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * GotoSource server owning the well-known LogMX port on behalf of several IDE
+ * instances.
+ *
+ * Other IDEs on the same machine register the port of their own
+ * GotoSourceServer with the broker.
+ * Each preview is sent to the local IDE and every registered peer in parallel
+ * and the first successful preview is returned. A goto is routed to the IDE
+ * that produced the client's last preview of the location, otherwise to the
+ * first IDE able to preview it (falling back to the local IDE, which reports
+ * the error to the user). Forwarded requests carry the address of the original
+ * LogMX client.
+ */
+public class GotoSourceBroker extends GotoSourceServer {
+
+    private static final long ROUTE_TTL = 30000;
+    private static final int MAX_ROUTES = 256;
+
+    private final Set<InetSocketAddress> peers = new CopyOnWriteArraySet<>();
+    private final ExecutorService fanOut;
+    private final int peerTimeout;
+
+    // IDE that answered the last successful preview per client and location
+    private final Map<String, Route> routes = new LinkedHashMap<String, Route>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Route> eldest) {
+            return size() > MAX_ROUTES;
+        }
+    };
+
+    /**
+     * @param manager the local IDE
+     * @param logger
+     * @param executor used for connections
+     * @param fanOut used for the parallel requests to the local IDE and peers
+     * (must not be shared with connection handling, which waits for them)
+     * @param peerTimeout per-request time budget in milliseconds
+     */
+    public GotoSourceBroker(GotoSourceManager manager, PluginLogger logger, ExecutorService executor, ExecutorService fanOut, int peerTimeout) {
+        super(manager, logger, executor);
+        this.fanOut = fanOut;
+        this.peerTimeout = peerTimeout;
+    }
+
+    /**
+     * @return the currently registered peers
+     */
+    public Set<InetSocketAddress> getPeers() {
+        return peers;
+    }
+
+    @Override
+    protected String processRequest(String line, InetAddress client) {
+        GotoSourceProtocol.Request request = GotoSourceProtocol.parse(line);
+        if (request != null) {
+            boolean peerCommand = GotoSourceProtocol.CMD_REGISTER.equals(request.getCommand())
+                    || GotoSourceProtocol.CMD_UNREGISTER.equals(request.getCommand());
+            if (peerCommand && !isLocal(client)) {
+                logger.error("Rejected GotoSource " + request.getCommand() + " from remote host " + client.getHostAddress());
+                return null;
+            }
+            switch (request.getCommand()) {
+                case GotoSourceProtocol.CMD_REGISTER:
+                    if (peers.add(new InetSocketAddress(client, request.getPort()))) {
+                        logger.info("Registered GotoSource peer " + client.getHostAddress() + ":" + request.getPort());
+                    }
+                    return GotoSourceProtocol.RESPONSE_OK;
+                case GotoSourceProtocol.CMD_UNREGISTER:
+                    if (peers.remove(new InetSocketAddress(client, request.getPort()))) {
+                        logger.info("Unregistered GotoSource peer " + client.getHostAddress() + ":" + request.getPort());
+                    }
+                    return GotoSourceProtocol.RESPONSE_OK;
+                case GotoSourceProtocol.CMD_PREVIEW:
+                    if (!peers.isEmpty()) {
+                        Answer answer = locate(request.getLocation(), clientOf(request, client));
+                        return answer == null ? null : answer.preview.toString();
+                    }
+                    break;
+                case GotoSourceProtocol.CMD_GOTO:
+                    if (!peers.isEmpty()) {
+                        routeGoto(request.getLocation(), clientOf(request, client));
+                        return null;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        return super.processRequest(line, client);
+    }
+
+    /**
+     * Peers are IDEs on this machine; anything else must not see the frames
+     * or take over gotos
+     *
+     * @param client
+     * @return true if the client is a loopback or local interface address
+     */
+    static boolean isLocal(InetAddress client) {
+        if (client.isLoopbackAddress() || client.isAnyLocalAddress()) {
+            return true;
+        }
+        try {
+            return NetworkInterface.getByInetAddress(client) != null;
+        } catch (SocketException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Send the goto to the IDE that produced the preview of the location,
+     * asking all IDEs again only if there was no recent preview
+     *
+     * @param sl
+     * @param client address of the LogMX client
+     */
+    private void routeGoto(SourceLocation sl, String client) {
+        Route route;
+        synchronized (routes) {
+            route = routes.get(routeKey(sl, client));
+        }
+        if (route != null && System.currentTimeMillis() - route.time < ROUTE_TTL) {
+            if (route.peer == null) {
+                goToSourceLocation(sl, client);
+                return;
+            }
+            if (forwardGoto(route.peer, sl, client)) {
+                return;
+            }
+        }
+
+        Answer answer = locate(sl, client);
+        if (answer != null && answer.preview.ok && answer.peer != null && forwardGoto(answer.peer, sl, client)) {
+            return;
+        }
+        goToSourceLocation(sl, client);
+    }
+
+    private boolean forwardGoto(InetSocketAddress peer, SourceLocation sl, String client) {
+        try {
+            GotoSourceProtocol.send(peer, GotoSourceProtocol.format(GotoSourceProtocol.CMD_GOTO, sl, client), peerTimeout);
+            return true;
+        } catch (IOException e) {
+            logger.error("Unable to forward goto to " + peer + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    private static String routeKey(SourceLocation sl, String client) {
+        return client + "|" + sl.getFullyQualifiedMethod() + "|" + sl.getFileName() + "|" + sl.getLineNumber();
+    }
+
+    /**
+     * Ask the local IDE and all peers for a preview in parallel
+     *
+     * @param sl
+     * @param client address of the LogMX client, passed on to the peers
+     * @return the first successful answer, otherwise the local (or any)
+     * failure, or null if nobody answered within the time budget
+     */
+    private Answer locate(final SourceLocation sl, final String client) {
+        CompletionService<Answer> completion = new ExecutorCompletionService<>(fanOut);
+        List<Future<Answer>> futures = new ArrayList<>();
+        futures.add(completion.submit(new Callable<Answer>() {
+            @Override
+            public Answer call() throws Exception {
+                return new Answer(null, previewSourceLocation(sl, client));
+            }
+        }));
+        for (final InetSocketAddress peer : peers) {
+            futures.add(completion.submit(new Callable<Answer>() {
+                @Override
+                public Answer call() throws Exception {
+                    return new Answer(peer, previewFromPeer(peer, sl, client));
+                }
+            }));
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(peerTimeout);
+        Answer failure = null;
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+                long remaining = deadline - System.nanoTime();
+                Future<Answer> f = remaining > 0 ? completion.poll(remaining, TimeUnit.NANOSECONDS) : null;
+                if (f == null) {
+                    break;
+                }
+                try {
+                    Answer answer = f.get();
+                    if (answer.preview == null) {
+                        continue;
+                    }
+                    if (answer.preview.ok) {
+                        synchronized (routes) {
+                            routes.put(routeKey(sl, client), new Route(answer.peer, System.currentTimeMillis()));
+                        }
+                        return answer;
+                    }
+                    if (failure == null || answer.peer == null) {
+                        failure = answer;
+                    }
+                } catch (ExecutionException e) {
+                    // peer failed, other answers may still succeed
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            for (Future<Answer> f : futures) {
+                f.cancel(true);
+            }
+        }
+        return failure;
+    }
+
+    /**
+     * Request a preview from a peer, dropping the peer if it no longer listens
+     *
+     * @param peer
+     * @param sl
+     * @param client address of the LogMX client
+     * @return
+     * @throws IOException
+     */
+    private SourcePreview previewFromPeer(InetSocketAddress peer, SourceLocation sl, String client) throws IOException {
+        String response;
+        try {
+            response = GotoSourceProtocol.send(peer, GotoSourceProtocol.format(GotoSourceProtocol.CMD_PREVIEW, sl, client), peerTimeout);
+        } catch (ConnectException e) {
+            if (peers.remove(peer)) {
+                logger.info("Dropped GotoSource peer " + peer + ": " + e.getMessage());
+            }
+            throw e;
+        }
+        return response == null ? null : SourcePreview.fromString(response);
+    }
+
+    /**
+     * The IDE (null for the local IDE) that answered a preview and when
+     */
+    private static final class Route {
+
+        private final InetSocketAddress peer;
+        private final long time;
+
+        private Route(InetSocketAddress peer, long time) {
+            this.peer = peer;
+            this.time = time;
+        }
+    }
+
+    /**
+     * A preview and the IDE it came from (null for the local IDE)
+     */
+    private static final class Answer {
+
+        private final InetSocketAddress peer;
+        private final SourcePreview preview;
+
+        private Answer(InetSocketAddress peer, SourcePreview preview) {
+            this.peer = peer;
+            this.preview = preview;
+        }
+    }
+}
@@ -0,0 +1,241 @@
+/*
+* MIT License
+* 
+* Copyright (c) 2016 Graeme Ingleby - graeme@ingleby.net
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy
+* of this software and associated documentation files (the "Software"), to deal
+* in the Software without restriction, including without limitation the rights
+* to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the Software is
+* furnished to do so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+* FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+* OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+* SOFTWARE.
+*/
+package net.ingleby.logmx.plugin.network;
+
+import com.lightyosft.logmx.gotosource.GotoSourceManager;
+import com.lightyosft.logmx.gotosource.business.PluginConfig;
+import com.lightyosft.logmx.gotosource.util.PluginLogger;
+import java.io.IOException;
+import java.net.BindException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One IDE's membership in a GotoSource broker group.
+ *
+ * The first IDE to bind the configured LogMX port becomes the broker. Later
+ * IDEs find the port in use, listen on a free port of the same address and
+ * register it with the broker. Registration is repeated periodically so a
+ * restarted broker relearns its peers, and a peer whose connection to the
+ * broker is refused tries to take over the well-known port itself. A port
+ * owner that answers but is not a broker is retried with backoff instead.
+ */
+public class GotoSourceBrokerNode {
+
+    private static final long HEARTBEAT_MILLIS = 10000;
+
+    // at most 2^5 heartbeats between registrations refused by the port owner
+    private static final int MAX_BACKOFF_SHIFT = 5;
+
+    private final GotoSourceManager manager;
+    private final PluginLogger logger;
+    private final ScheduledExecutorService executor;
+    private final ExecutorService fanOut;
+    private final PluginConfig config;
+    private final int peerTimeout;
+
+    private GotoSourceServer server = null;
+    private ScheduledFuture<?> heartbeat = null;
+    private long heartbeatMillis = HEARTBEAT_MILLIS;
+
+    // consecutive refused registrations and heartbeats left to skip
+    private int refusals = 0;
+    private int skippedHeartbeats = 0;
+
+    /**
+     * @param manager the local IDE
+     * @param logger
+     * @param executor used for connections and the heartbeat
+     * @param fanOut used by the broker for the parallel requests to all IDEs
+     * @param config the well-known LogMX address
+     * @param peerTimeout per-request time budget in milliseconds
+     */
+    public GotoSourceBrokerNode(GotoSourceManager manager, PluginLogger logger, ScheduledExecutorService executor, ExecutorService fanOut, PluginConfig config, int peerTimeout) {
+        this.manager = manager;
+        this.logger = logger;
+        this.executor = executor;
+        this.fanOut = fanOut;
+        this.config = config;
+        this.peerTimeout = peerTimeout;
+    }
+
+    /**
+     * Join the group as broker or peer
+     *
+     * @throws IOException if neither role could be started
+     */
+    public synchronized void start() throws IOException {
+        if (server != null) {
+            return;
+        }
+        join();
+        heartbeat = executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                heartbeat();
+            }
+        }, heartbeatMillis, heartbeatMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param millis interval between registrations with the broker, takes
+     * effect on the next start
+     */
+    public synchronized void setHeartbeatInterval(long millis) {
+        this.heartbeatMillis = millis;
+    }
+
+    /**
+     * Leave the group, unregistering from the broker when running as a peer
+     */
+    public synchronized void stop() {
+        if (heartbeat != null) {
+            heartbeat.cancel(false);
+            heartbeat = null;
+        }
+        if (server != null) {
+            if (!isBroker()) {
+                sendToBroker(GotoSourceProtocol.CMD_UNREGISTER);
+            }
+            server.stop();
+            server = null;
+        }
+        refusals = 0;
+        skippedHeartbeats = 0;
+    }
+
+    public synchronized boolean isBroker() {
+        return server instanceof GotoSourceBroker;
+    }
+
+    /**
+     * @return the address this IDE listens on, or null when stopped
+     */
+    public synchronized InetSocketAddress getAddress() {
+        return server == null ? null : server.getAddress();
+    }
+
+    /**
+     * @return the registered peers when running as the broker, otherwise an
+     * empty set
+     */
+    public synchronized Set<InetSocketAddress> getPeers() {
+        return isBroker() ? ((GotoSourceBroker) server).getPeers() : Collections.<InetSocketAddress>emptySet();
+    }
+
+    private void join() throws IOException {
+        GotoSourceBroker broker = new GotoSourceBroker(manager, logger, executor, fanOut, peerTimeout);
+        try {
+            broker.start(config.getHostName(), config.getPort());
+            server = broker;
+            return;
+        } catch (BindException e) {
+            logger.info("GotoSource port " + config.getPort() + " in use, joining as a broker peer");
+        }
+
+        GotoSourceServer peer = new GotoSourceServer(manager, logger, executor);
+        peer.start(config.getHostName(), 0);
+        server = peer;
+        registered(sendToBroker(GotoSourceProtocol.CMD_REGISTER));
+    }
+
+    private synchronized void heartbeat() {
+        if (server == null || isBroker()) {
+            return;
+        }
+        if (skippedHeartbeats > 0) {
+            skippedHeartbeats--;
+            return;
+        }
+        Registration registration = sendToBroker(GotoSourceProtocol.CMD_REGISTER);
+        if (registration == Registration.UNREACHABLE) {
+            // broker went away, try to take over the well-known port
+            server.stop();
+            server = null;
+            refusals = 0;
+            try {
+                join();
+            } catch (IOException e) {
+                logger.error("Unable to rejoin GotoSource broker group", e);
+            }
+        } else {
+            registered(registration);
+        }
+    }
+
+    /**
+     * Track the outcome of a registration. A port owner that answers but is
+     * not a broker (an IDE with broker mode off, another program) is reported
+     * once and asked again with exponential backoff, keeping this peer's port.
+     */
+    private void registered(Registration registration) {
+        String broker = config.getHostName() + ":" + config.getPort();
+        switch (registration) {
+            case REGISTERED:
+                if (refusals > 0) {
+                    logger.info("Registered with GotoSource broker on " + broker);
+                }
+                refusals = 0;
+                skippedHeartbeats = 0;
+                break;
+            case REFUSED:
+                if (refusals == 0) {
+                    logger.error("GotoSource port " + broker + " is not served by a broker, will keep trying to register");
+                }
+                refusals++;
+                skippedHeartbeats = (1 << Math.min(refusals, MAX_BACKOFF_SHIFT)) - 1;
+                break;
+            default:
+                logger.error("Unable to register with GotoSource broker on " + broker);
+                break;
+        }
+    }
+
+    /**
+     * @param command register or unregister
+     * @return whether the broker acknowledged the command
+     */
+    private Registration sendToBroker(String command) {
+        try {
+            String response = GotoSourceProtocol.send(new InetSocketAddress(config.getHostName(), config.getPort()),
+                    GotoSourceProtocol.format(command, server.getAddress().getPort()), peerTimeout);
+            return GotoSourceProtocol.RESPONSE_OK.equals(response) ? Registration.REGISTERED : Registration.REFUSED;
+        } catch (ConnectException e) {
+            return Registration.UNREACHABLE;
+        } catch (IOException e) {
+            // listening but slow or misbehaving, not gone
+            return Registration.REFUSED;
+        }
+    }
+
+    private enum Registration {
+        REGISTERED, REFUSED, UNREACHABLE
+    }
+}
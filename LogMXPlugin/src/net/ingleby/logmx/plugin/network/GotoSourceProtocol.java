@@ -0,0 +1,195 @@
+/*
+* MIT License
+* 
+* Copyright (c) 2016 Graeme Ingleby - graeme@ingleby.net
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy
+* of this software and associated documentation files (the "Software"), to deal
+* in the Software without restriction, including without limitation the rights
+* to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the Software is
+* furnished to do so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+* FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+* OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+* SOFTWARE.
+*/
+package net.ingleby.logmx.plugin.network;
+
+import com.lightyosft.logmx.gotosource.business.SourceLocation;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The LogMX GotoSource protocol: a client connects, sends a single request
+ * line and reads the response until the server closes the connection (preview
+ * responses span several lines).
+ */
+public final class GotoSourceProtocol {
+
+    public static final String CMD_TEST = "test";
+    public static final String CMD_GOTO = "goto";
+    public static final String CMD_PREVIEW = "preview";
+    public static final String CMD_REGISTER = "register";
+    public static final String CMD_UNREGISTER = "unregister";
+
+    public static final String RESPONSE_OK = "ok";
+
+    private static final Pattern REQUEST_PATTERN_TEST = Pattern.compile("^cmd=\"test\"$");
+    private static final Pattern REQUEST_PATTERN_LOCATION = Pattern.compile("^cmd=\"(goto|preview)\" method=\"([^\"]+)\" file=\"([^\"]*)\" line=\"(-1|\\d+)\"(?: client=\"([^\"]+)\")?$");
+    private static final Pattern REQUEST_PATTERN_PEER = Pattern.compile("^cmd=\"(register|unregister)\" port=\"(\\d+)\"$");
+
+    private GotoSourceProtocol() {
+    }
+
+    /**
+     * Parsed form of a single request line
+     */
+    public static final class Request {
+
+        private final String command;
+        private final SourceLocation location;
+        private final String client;
+        private final int port;
+
+        private Request(String command, SourceLocation location, String client, int port) {
+            this.command = command;
+            this.location = location;
+            this.client = client;
+            this.port = port;
+        }
+
+        public String getCommand() {
+            return command;
+        }
+
+        /**
+         * @return the source location of a goto/preview request, otherwise
+         * null
+         */
+        public SourceLocation getLocation() {
+            return location;
+        }
+
+        /**
+         * @return the original LogMX client of a goto/preview request a
+         * broker forwarded, otherwise null
+         */
+        public String getClient() {
+            return client;
+        }
+
+        /**
+         * @return the listening port of a register/unregister request,
+         * otherwise -1
+         */
+        public int getPort() {
+            return port;
+        }
+    }
+
+    /**
+     * Parse a request line
+     *
+     * @param line
+     * @return the request or null if the line is not a valid request
+     */
+    public static Request parse(String line) {
+        if (line == null) {
+            return null;
+        }
+        if (REQUEST_PATTERN_TEST.matcher(line).matches()) {
+            return new Request(CMD_TEST, null, null, -1);
+        }
+        Matcher m = REQUEST_PATTERN_LOCATION.matcher(line);
+        if (m.matches()) {
+            return new Request(m.group(1), new SourceLocation(m.group(2), m.group(3), Integer.parseInt(m.group(4))), m.group(5), -1);
+        }
+        m = REQUEST_PATTERN_PEER.matcher(line);
+        if (m.matches()) {
+            try {
+                return new Request(m.group(1), null, null, Integer.parseInt(m.group(2)));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Format a goto/preview request line for a source location
+     *
+     * @param command
+     * @param sl
+     * @return
+     */
+    public static String format(String command, SourceLocation sl) {
+        return "cmd=\"" + command + "\" method=\"" + sl.getFullyQualifiedMethod() + "\" file=\"" + (sl.getFileName() == null ? "" : sl.getFileName()) + "\" line=\"" + sl.getLineNumber() + "\"";
+    }
+
+    /**
+     * Format a goto/preview request line forwarded on behalf of a LogMX client
+     *
+     * @param command
+     * @param sl
+     * @param client address of the original client, null for none
+     * @return
+     */
+    public static String format(String command, SourceLocation sl, String client) {
+        String request = format(command, sl);
+        return client == null ? request : request + " client=\"" + client + "\"";
+    }
+
+    /**
+     * Format a register/unregister request line for a peer listening on port
+     *
+     * @param command
+     * @param port
+     * @return
+     */
+    public static String format(String command, int port) {
+        return "cmd=\"" + command + "\" port=\"" + port + "\"";
+    }
+
+    /**
+     * Send a single request and wait for the response
+     *
+     * @param address
+     * @param request
+     * @param timeout connect and read timeout in milliseconds
+     * @return the response (null if the remote closed without answering)
+     * @throws IOException
+     */
+    public static String send(InetSocketAddress address, String request, int timeout) throws IOException {
+        try (Socket socket = new Socket()) {
+            socket.connect(address, timeout);
+            socket.setSoTimeout(timeout);
+            PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+            out.println(request);
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            StringBuilder response = null;
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (response == null) {
+                    response = new StringBuilder(line);
+                } else {
+                    response.append('\n').append(line);
+                }
+            }
+            return response == null ? null : response.toString();
+        }
+    }
+}
@@ -0,0 +1,245 @@
+/*
+* MIT License
+* 
+* Copyright (c) 2016 Graeme Ingleby - graeme@ingleby.net
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy
+* of this software and associated documentation files (the "Software"), to deal
+* in the Software without restriction, including without limitation the rights
+* to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the Software is
+* furnished to do so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+* FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+* OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+* SOFTWARE.
+*/
+package net.ingleby.logmx.plugin.network;
+
+import com.lightyosft.logmx.gotosource.GotoSourceManager;
+import com.lightyosft.logmx.gotosource.business.SourceLocation;
+import com.lightyosft.logmx.gotosource.business.SourcePreview;
+import com.lightyosft.logmx.gotosource.util.PluginLogger;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Socket listener serving the GotoSource protocol from a GotoSourceManager.
+ *
+ * Unlike the LogMX SocketListener the port is bound synchronously by start()
+ * (so callers can react to a port that is already in use) and connections are
+ * handled concurrently on the supplied executor. A ClientGotoSourceManager is
+ * told which LogMX client each request came from.
+ */
+public class GotoSourceServer {
+
+    private static final int BACKLOG = 50;
+
+    // LogMX sends its request line right after connecting; idle connections
+    // must not hold a handler thread
+    private static final int READ_TIMEOUT = 5000;
+
+    protected final GotoSourceManager manager;
+    protected final PluginLogger logger;
+    protected final ExecutorService executor;
+
+    private volatile ServerSocket serverSocket = null;
+    private Thread acceptThread = null;
+    private volatile boolean running = false;
+
+    public GotoSourceServer(GotoSourceManager manager, PluginLogger logger, ExecutorService executor) {
+        this.manager = manager;
+        this.logger = logger;
+        this.executor = executor;
+    }
+
+    /**
+     * Bind the listen address and start accepting connections
+     *
+     * @param hostName
+     * @param port the port to listen on, 0 for any free port
+     * @throws IOException if the address cannot be bound (e.g. a
+     * java.net.BindException when the port is already in use)
+     */
+    public synchronized void start(String hostName, int port) throws IOException {
+        if (running) {
+            return;
+        }
+        final ServerSocket ss = new ServerSocket(port, BACKLOG, InetAddress.getByName(hostName));
+        final InetSocketAddress address = (InetSocketAddress) ss.getLocalSocketAddress();
+        serverSocket = ss;
+        running = true;
+        logger.info("Started " + getClass().getSimpleName() + " on " + address);
+
+        acceptThread = new Thread("LogMXGotoSource" + getClass().getSimpleName()) {
+            @Override
+            public void run() {
+                while (running) {
+                    try {
+                        final Socket socket = ss.accept();
+                        try {
+                            executor.execute(new Runnable() {
+                                @Override
+                                public void run() {
+                                    handle(socket);
+                                }
+                            });
+                        } catch (RejectedExecutionException e) {
+                            close(socket);
+                        }
+                    } catch (IOException e) {
+                        if (running) {
+                            logger.error("Error accepting connection on " + address, e);
+                        }
+                    }
+                }
+                logger.info("Finished listening on " + address);
+            }
+        };
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    /**
+     * Stop accepting connections and release the listen address
+     */
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            // closing anyway
+        }
+        try {
+            acceptThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        acceptThread = null;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * @return the bound address (useful when started on port 0) or null if
+     * not running
+     */
+    public InetSocketAddress getAddress() {
+        ServerSocket ss = serverSocket;
+        if (ss == null || !running) {
+            return null;
+        }
+        return (InetSocketAddress) ss.getLocalSocketAddress();
+    }
+
+    /**
+     * Read one request line, answer it and close the connection
+     *
+     * @param socket
+     */
+    private void handle(Socket socket) {
+        try {
+            socket.setSoTimeout(READ_TIMEOUT);
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            String response = processRequest(in.readLine(), socket.getInetAddress());
+            PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+            out.println(response);
+        } catch (SocketException e) {
+            // client went away
+        } catch (SocketTimeoutException e) {
+            logger.error("No request from " + socket.getRemoteSocketAddress() + " within " + READ_TIMEOUT + "ms");
+        } catch (IOException e) {
+            logger.error("Error handling request from " + socket.getRemoteSocketAddress(), e);
+        } finally {
+            close(socket);
+        }
+    }
+
+    /**
+     * Process a single request line
+     *
+     * @param line
+     * @param client address of the connecting client
+     * @return the response line
+     */
+    protected String processRequest(String line, InetAddress client) {
+        GotoSourceProtocol.Request request = GotoSourceProtocol.parse(line);
+        if (request == null) {
+            logger.error("Invalid request [" + line + "]");
+            return null;
+        }
+        switch (request.getCommand()) {
+            case GotoSourceProtocol.CMD_TEST:
+                return GotoSourceProtocol.RESPONSE_OK;
+            case GotoSourceProtocol.CMD_GOTO:
+                goToSourceLocation(request.getLocation(), clientOf(request, client));
+                return null;
+            case GotoSourceProtocol.CMD_PREVIEW:
+                try {
+                    SourcePreview preview = previewSourceLocation(request.getLocation(), clientOf(request, client));
+                    return preview == null ? null : preview.toString();
+                } catch (RuntimeException e) {
+                    logger.error("Error while getting preview", e);
+                    return null;
+                }
+            default:
+                logger.error("Unsupported request [" + line + "]");
+                return null;
+        }
+    }
+
+    /**
+     * @param request
+     * @param client address of the connecting client
+     * @return the original LogMX client of a forwarded request, otherwise the
+     * connecting client
+     */
+    protected static String clientOf(GotoSourceProtocol.Request request, InetAddress client) {
+        return request.getClient() != null ? request.getClient() : client.getHostAddress();
+    }
+
+    protected void goToSourceLocation(SourceLocation sl, String client) {
+        if (manager instanceof ClientGotoSourceManager) {
+            ((ClientGotoSourceManager) manager).goToSourceLocation(sl, client);
+        } else {
+            manager.goToSourceLocation(sl);
+        }
+    }
+
+    protected SourcePreview previewSourceLocation(SourceLocation sl, String client) {
+        if (manager instanceof ClientGotoSourceManager) {
+            return ((ClientGotoSourceManager) manager).previewSourceLocation(sl, client);
+        }
+        return manager.previewSourceLocation(sl);
+    }
+
+    private static void close(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+}
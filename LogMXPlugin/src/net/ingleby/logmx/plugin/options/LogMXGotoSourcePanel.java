@@ -168,13 +168,15 @@ final public class LogMXGotoSourcePanel extends javax.swing.JPanel {
         /**
          * CheckBox Change Listener that triggers a controller change
          */
-        pluginEnabledCheckBox.addChangeListener(new ChangeListener() {
+        ChangeListener checkBoxChangedListener = new ChangeListener() {
             @Override
             public void stateChanged(ChangeEvent e) {
 //                LogMXGotoSourcePanel.this.controller.changed();
                 LogMXGotoSourcePanel.this.controller.performValidation();
             }
-        });
+        };
+        pluginEnabledCheckBox.addChangeListener(checkBoxChangedListener);
+        brokerCheckBox.addChangeListener(checkBoxChangedListener);
     }
 
     /**
@@ -191,6 +193,7 @@ final public class LogMXGotoSourcePanel extends javax.swing.JPanel {
         addressTextField = new javax.swing.JTextField();
         portTextField = new javax.swing.JTextField();
         pluginEnabledCheckBox = new javax.swing.JCheckBox();
+        brokerCheckBox = new javax.swing.JCheckBox();
         validationPanel = new org.netbeans.validation.api.ui.swing.ValidationPanel();
         jScrollPane2 = new javax.swing.JScrollPane();
         jTextPane2 = new javax.swing.JTextPane();
@@ -210,6 +213,9 @@ final public class LogMXGotoSourcePanel extends javax.swing.JPanel {
         pluginEnabledCheckBox.setSelected(true);
         org.openide.awt.Mnemonics.setLocalizedText(pluginEnabledCheckBox, org.openide.util.NbBundle.getMessage(LogMXGotoSourcePanel.class, "LogMXGotoSourcePanel.pluginEnabledCheckBox.text")); // NOI18N
 
+        org.openide.awt.Mnemonics.setLocalizedText(brokerCheckBox, org.openide.util.NbBundle.getMessage(LogMXGotoSourcePanel.class, "LogMXGotoSourcePanel.brokerCheckBox.text")); // NOI18N
+        brokerCheckBox.setToolTipText(org.openide.util.NbBundle.getMessage(LogMXGotoSourcePanel.class, "LogMXGotoSourcePanel.brokerCheckBox.toolTipText")); // NOI18N
+
         validationPanel.setBorder(null);
 
         jScrollPane2.setBackground(new java.awt.Color(153, 255, 255));
@@ -240,6 +246,7 @@ final public class LogMXGotoSourcePanel extends javax.swing.JPanel {
                     .addComponent(portTextField, javax.swing.GroupLayout.DEFAULT_SIZE, 121, Short.MAX_VALUE)
                     .addComponent(addressTextField))
                 .addGap(0, 0, Short.MAX_VALUE))
+            .addComponent(brokerCheckBox)
             .addComponent(validationPanel, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE)
             .addComponent(jScrollPane2, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE)
         );
@@ -258,6 +265,8 @@ final public class LogMXGotoSourcePanel extends javax.swing.JPanel {
                 .addGroup(layout.createParallelGroup(javax.swing.GroupLayout.Alignment.BASELINE)
                     .addComponent(jLabel4)
                     .addComponent(portTextField, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE))
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.UNRELATED)
+                .addComponent(brokerCheckBox)
                 .addGap(18, 18, 18)
                 .addComponent(jScrollPane2, javax.swing.GroupLayout.DEFAULT_SIZE, 52, Short.MAX_VALUE)
                 .addGap(8, 8, 8)
@@ -270,6 +279,7 @@ final public class LogMXGotoSourcePanel extends javax.swing.JPanel {
          * Populate current preference values
          */
         pluginEnabledCheckBox.setSelected(NbPreferences.forModule(LogMXGotoSourcePanel.class).getBoolean("enabled", true));
+        brokerCheckBox.setSelected(NbPreferences.forModule(LogMXGotoSourcePanel.class).getBoolean("brokerEnabled", false));
         addressTextField.setText(NbPreferences.forModule(LogMXGotoSourcePanel.class).get("listenAddress", "127.0.0.1"));
         try {
             portTextField.setText(Integer.toString(NbPreferences.forModule(LogMXGotoSourcePanel.class).getInt("listenPort", 7789)));
@@ -281,6 +291,7 @@ final public class LogMXGotoSourcePanel extends javax.swing.JPanel {
     void store() {
         // Save Preferences
         NbPreferences.forModule(LogMXGotoSourcePanel.class).putBoolean("enabled", pluginEnabledCheckBox.isSelected());
+        NbPreferences.forModule(LogMXGotoSourcePanel.class).putBoolean("brokerEnabled", brokerCheckBox.isSelected());
         NbPreferences.forModule(LogMXGotoSourcePanel.class).put("listenAddress", addressTextField.getText());
         try {
             NbPreferences.forModule(LogMXGotoSourcePanel.class).putInt("listenPort", Integer.parseInt(portTextField.getText()));
@@ -305,13 +316,15 @@ final public class LogMXGotoSourcePanel extends javax.swing.JPanel {
         String oldAddress = NbPreferences.forModule(LogMXGotoSourcePanel.class).get("listenAddress", "127.0.0.1");
         String oldPort = NbPreferences.forModule(LogMXGotoSourcePanel.class).get("listenPort", "7789");
         boolean oldEnabled = NbPreferences.forModule(LogMXGotoSourcePanel.class).getBoolean("enabled", true);
+        boolean oldBroker = NbPreferences.forModule(LogMXGotoSourcePanel.class).getBoolean("brokerEnabled", false);
 
         // Determine what new preference values will be...
         String newAddress = addressTextField.getText();
         String newPort = portTextField.getText();
         boolean newEnabled = pluginEnabledCheckBox.isSelected();
+        boolean newBroker = brokerCheckBox.isSelected();
 
-        if (!oldAddress.equals(newAddress) || !oldPort.equals(newPort) || oldEnabled != newEnabled) {
+        if (!oldAddress.equals(newAddress) || !oldPort.equals(newPort) || oldEnabled != newEnabled || oldBroker != newBroker) {
             LogMXGotoSourcePanel.this.controller.changed();
         } else {
             LogMXGotoSourcePanel.this.controller.resetchanged();
@@ -364,6 +377,7 @@ final public class LogMXGotoSourcePanel extends javax.swing.JPanel {
 
     // Variables declaration - do not modify//GEN-BEGIN:variables
     private javax.swing.JTextField addressTextField;
+    private javax.swing.JCheckBox brokerCheckBox;
     private javax.swing.JLabel jLabel1;
     private javax.swing.JLabel jLabel3;
     private javax.swing.JLabel jLabel4;
@@ -0,0 +1,372 @@
+/*
+* MIT License
+* 
+* Copyright (c) 2016 Graeme Ingleby - graeme@ingleby.net
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy
+* of this software and associated documentation files (the "Software"), to deal
+* in the Software without restriction, including without limitation the rights
+* to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the Software is
+* furnished to do so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+* FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+* OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+* SOFTWARE.
+*/
+package net.ingleby.logmx.plugin.source;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Lightweight lexical scanner locating method declarations in Java source.
+ *
+ * This is not a parser: it skips comments and literals, tracks braces and
+ * recognises "name(...) [throws ...] {" inside class bodies. That is enough to
+ * map a stack trace frame (class + method) to the line range of the method
+ * without the cost of a full parse.
+ */
+final class JavaMethodScanner {
+
+    static final String CONSTRUCTOR = "<init>";
+    static final String STATIC_INITIALIZER = "<clinit>";
+
+    private static final Set<String> KEYWORDS = new HashSet<>(Arrays.asList(
+            "if", "for", "while", "switch", "catch", "synchronized", "try", "return", "new",
+            "throw", "else", "do", "case", "assert", "super", "this", "yield"));
+
+    private static final Set<String> TYPE_KEYWORDS = new HashSet<>(Arrays.asList(
+            "class", "interface", "enum", "record"));
+
+    private static final Comparator<int[]> BY_START = new Comparator<int[]>() {
+        @Override
+        public int compare(int[] a, int[] b) {
+            return Integer.compare(a[0], b[0]);
+        }
+    };
+
+    private enum Kind {
+        FILE, CLASS, METHOD, BLOCK
+    }
+
+    private static final class Frame {
+
+        private final Kind kind;
+        private final String name;
+        private final int line;
+
+        // enum body before the ';' ending its constants
+        private boolean enumConstants = false;
+
+        private Frame(Kind kind, String name, int line) {
+            this.kind = kind;
+            this.name = name;
+            this.line = line;
+        }
+    }
+
+    private final CharSequence src;
+    private final int length;
+    private int pos = 0;
+    private int line = 1;
+
+    // current token
+    private String token = null;
+    private int tokenLine = 0;
+
+    private JavaMethodScanner(CharSequence src) {
+        this.src = src;
+        this.length = src.length();
+    }
+
+    /**
+     * Scan a source file
+     *
+     * @param src
+     * @return line ranges {start, end} ordered by start line, keyed by
+     * "Outer$Inner#method" (anonymous classes are named Outer$1, ..., local
+     * classes Outer$1Local, ...)
+     */
+    static Map<String, List<int[]>> scan(CharSequence src) {
+        return new JavaMethodScanner(src).scan();
+    }
+
+    private Map<String, List<int[]>> scan() {
+        Map<String, List<int[]>> methods = new HashMap<>();
+        Deque<Frame> frames = new ArrayDeque<>();
+        frames.push(new Frame(Kind.FILE, null, 0));
+
+        // identifiers owning each open parenthesis (null when not an identifier)
+        Deque<String> parens = new ArrayDeque<>();
+
+        // anonymous classes declared so far per enclosing class
+        Map<String, Integer> anonymous = new HashMap<>();
+
+        // local classes declared so far per enclosing class and name
+        Map<String, Integer> local = new HashMap<>();
+
+        String prev = null;             // previous token
+        String prevPrev = null;         // token before previous
+        int prevLine = 0;               // line of the previous token
+        String pendingType = null;      // class/interface/enum name awaiting its body
+        boolean pendingEnum = false;    // pendingType is an enum
+        boolean expectTypeName = false; // last token was class/interface/enum/record
+        String closedParenOwner = null; // owner of the most recently closed top-level paren
+
+        // method candidate: name(...) seen at class level, waiting for '{'
+        String candidate = null;
+        int candidateLine = 0;
+        boolean candidateArgsClosed = false;
+
+        while (next()) {
+            String t = token;
+            Frame top = frames.peek();
+
+            if (expectTypeName) {
+                expectTypeName = false;
+                if (isIdentifier(t)) {
+                    String outer = enclosingClass(frames);
+                    if (top.kind == Kind.METHOD || top.kind == Kind.BLOCK) {
+                        pendingType = localClass(outer, t, local);
+                    } else {
+                        pendingType = outer.isEmpty() ? t : outer + "$" + t;
+                    }
+                    pendingEnum = "enum".equals(prev);
+                }
+            } else if (TYPE_KEYWORDS.contains(t) && !".".equals(prev)) {
+                expectTypeName = true;
+            }
+
+            switch (t) {
+                case "(":
+                    if (parens.isEmpty() && top.kind == Kind.CLASS && !top.enumConstants && pendingType == null
+                            && isIdentifier(prev) && !KEYWORDS.contains(prev)
+                            && !"new".equals(prevPrev) && !"@".equals(prevPrev) && !".".equals(prevPrev)) {
+                        candidate = prev;
+                        candidateLine = prevLine;
+                        candidateArgsClosed = false;
+                    }
+                    parens.push(isIdentifier(prev) || ">".equals(prev) ? prev : "");
+                    break;
+                case ")":
+                    if (!parens.isEmpty()) {
+                        closedParenOwner = parens.pop();
+                        if (parens.isEmpty() && candidate != null) {
+                            candidateArgsClosed = true;
+                        }
+                    }
+                    break;
+                case "{":
+                    if (candidate != null && candidateArgsClosed) {
+                        String name = candidate.equals(simpleName(enclosingClass(frames))) ? CONSTRUCTOR : candidate;
+                        frames.push(new Frame(Kind.METHOD, name, candidateLine));
+                    } else if (pendingType != null) {
+                        Frame type = new Frame(Kind.CLASS, pendingType, tokenLine);
+                        type.enumConstants = pendingEnum;
+                        frames.push(type);
+                    } else if (")".equals(prev) && closedParenOwner != null && !closedParenOwner.isEmpty()
+                            && !KEYWORDS.contains(closedParenOwner) && top.kind != Kind.FILE) {
+                        // anonymous class body
+                        frames.push(new Frame(Kind.CLASS, anonymousClass(frames, anonymous), tokenLine));
+                    } else if (top.kind == Kind.CLASS && "static".equals(prev)) {
+                        frames.push(new Frame(Kind.METHOD, STATIC_INITIALIZER, tokenLine));
+                    } else if (top.enumConstants && isIdentifier(prev)) {
+                        // enum constant body
+                        frames.push(new Frame(Kind.CLASS, anonymousClass(frames, anonymous), tokenLine));
+                    } else {
+                        frames.push(new Frame(Kind.BLOCK, null, tokenLine));
+                    }
+                    pendingType = null;
+                    pendingEnum = false;
+                    candidate = null;
+                    parens.clear();
+                    break;
+                case "}":
+                    if (frames.size() > 1) {
+                        Frame f = frames.pop();
+                        if (f.kind == Kind.METHOD) {
+                            String key = enclosingClass(frames) + "#" + f.name;
+                            List<int[]> ranges = methods.get(key);
+                            if (ranges == null) {
+                                ranges = new ArrayList<>(1);
+                                methods.put(key, ranges);
+                            }
+                            ranges.add(new int[]{f.line, tokenLine});
+                        }
+                    }
+                    candidate = null;
+                    parens.clear();
+                    break;
+                case ";":
+                    if (parens.isEmpty()) {
+                        candidate = null;
+                        top.enumConstants = false;
+                    }
+                    break;
+                case "=":
+                    if (parens.isEmpty()) {
+                        candidate = null;
+                    }
+                    break;
+                default:
+                    break;
+            }
+
+            prevPrev = prev;
+            prev = t;
+            prevLine = tokenLine;
+        }
+        for (List<int[]> ranges : methods.values()) {
+            Collections.sort(ranges, BY_START);
+        }
+        return methods;
+    }
+
+    /**
+     * Name the next anonymous class of the innermost enclosing class the way
+     * javac does (Outer$1, Outer$2, ... in source order)
+     */
+    private static String anonymousClass(Deque<Frame> frames, Map<String, Integer> anonymous) {
+        String outer = enclosingClass(frames);
+        Integer count = anonymous.get(outer);
+        count = count == null ? 1 : count + 1;
+        anonymous.put(outer, count);
+        return outer + "$" + count;
+    }
+
+    /**
+     * Name a class declared inside a method or block the way javac does
+     * (Outer$1Local, Outer$2Local for a second Local in another method, ...)
+     */
+    private static String localClass(String outer, String name, Map<String, Integer> local) {
+        String key = outer + "$" + name;
+        Integer count = local.get(key);
+        count = count == null ? 1 : count + 1;
+        local.put(key, count);
+        return outer + "$" + count + name;
+    }
+
+    /**
+     * @return binary name (Outer$Inner) of the innermost enclosing class
+     */
+    private static String enclosingClass(Deque<Frame> frames) {
+        for (Frame f : frames) {
+            if (f.kind == Kind.CLASS) {
+                return f.name;
+            }
+        }
+        return "";
+    }
+
+    private static String simpleName(String binaryName) {
+        return binaryName.substring(binaryName.lastIndexOf('$') + 1);
+    }
+
+    private static boolean isIdentifier(String t) {
+        return t != null && Character.isJavaIdentifierStart(t.charAt(0));
+    }
+
+    /**
+     * Advance to the next token, skipping whitespace, comments and literals
+     *
+     * @return false at end of input
+     */
+    private boolean next() {
+        while (pos < length) {
+            char c = src.charAt(pos);
+            if (c == '\n') {
+                line++;
+                pos++;
+            } else if (Character.isWhitespace(c)) {
+                pos++;
+            } else if (c == '/' && pos + 1 < length && src.charAt(pos + 1) == '/') {
+                while (pos < length && src.charAt(pos) != '\n') {
+                    pos++;
+                }
+            } else if (c == '/' && pos + 1 < length && src.charAt(pos + 1) == '*') {
+                pos += 2;
+                while (pos < length && !(src.charAt(pos) == '*' && pos + 1 < length && src.charAt(pos + 1) == '/')) {
+                    if (src.charAt(pos) == '\n') {
+                        line++;
+                    }
+                    pos++;
+                }
+                pos += 2;
+            } else if (c == '"' || c == '\'') {
+                tokenLine = line;
+                skipLiteral(c);
+                token = "\"";
+                return true;
+            } else if (Character.isJavaIdentifierStart(c)) {
+                tokenLine = line;
+                int start = pos;
+                while (pos < length && Character.isJavaIdentifierPart(src.charAt(pos))) {
+                    pos++;
+                }
+                token = src.subSequence(start, pos).toString();
+                return true;
+            } else if (Character.isDigit(c)) {
+                tokenLine = line;
+                while (pos < length && (Character.isLetterOrDigit(src.charAt(pos)) || src.charAt(pos) == '.' || src.charAt(pos) == '_')) {
+                    pos++;
+                }
+                token = "0";
+                return true;
+            } else {
+                tokenLine = line;
+                pos++;
+                token = String.valueOf(c);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Skip a string, text block or character literal starting at pos
+     */
+    private void skipLiteral(char quote) {
+        if (quote == '"' && pos + 2 < length && src.charAt(pos + 1) == '"' && src.charAt(pos + 2) == '"') {
+            pos += 3;
+            while (pos < length && !(src.charAt(pos) == '"' && pos + 2 < length && src.charAt(pos + 1) == '"' && src.charAt(pos + 2) == '"')) {
+                if (src.charAt(pos) == '\\') {
+                    pos++;
+                } else if (src.charAt(pos) == '\n') {
+                    line++;
+                }
+                pos++;
+            }
+            pos += 3;
+            return;
+        }
+        pos++;
+        while (pos < length) {
+            char c = src.charAt(pos);
+            if (c == '\\') {
+                pos += 2;
+            } else if (c == quote || c == '\n') {
+                pos++;
+                return;
+            } else {
+                pos++;
+            }
+        }
+    }
+}
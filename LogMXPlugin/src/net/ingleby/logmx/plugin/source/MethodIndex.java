@@ -0,0 +1,221 @@
+/*
+* MIT License
+* 
+* Copyright (c) 2016 Graeme Ingleby - graeme@ingleby.net
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy
+* of this software and associated documentation files (the "Software"), to deal
+* in the Software without restriction, including without limitation the rights
+* to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the Software is
+* furnished to do so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+* FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+* OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+* SOFTWARE.
+*/
+package net.ingleby.logmx.plugin.source;
+
+import com.lightyosft.logmx.gotosource.business.SourceLocation;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Index of method declarations to line ranges per source file.
+ *
+ * Stack trace frames carry "(Unknown Source)" or line numbers from an older
+ * build; the index maps such frames to the declaration of the method instead.
+ * Files are keyed by a caller chosen path and re-scanned whenever their
+ * modification stamp changes.
+ */
+public class MethodIndex {
+
+    private final Map<String, FileEntry> files = new ConcurrentHashMap<>();
+
+    /**
+     * @param path
+     * @param stamp modification stamp of the file
+     * @return true if the file is indexed at this stamp
+     */
+    public boolean isCurrent(String path, long stamp) {
+        FileEntry entry = files.get(path);
+        return entry != null && entry.stamp == stamp;
+    }
+
+    /**
+     * (Re-)index a source file
+     *
+     * @param path
+     * @param stamp modification stamp of the file
+     * @param source
+     */
+    public void put(String path, long stamp, CharSequence source) {
+        files.put(path, new FileEntry(stamp, JavaMethodScanner.scan(source)));
+    }
+
+    public void remove(String path) {
+        files.remove(path);
+    }
+
+    /**
+     * Remove every file below a directory path
+     *
+     * @param prefix
+     */
+    public void removeAll(String prefix) {
+        String dir = prefix.endsWith("/") ? prefix : prefix + "/";
+        for (String path : files.keySet()) {
+            if (path.startsWith(dir)) {
+                files.remove(path);
+            }
+        }
+    }
+
+    /**
+     * Remove every file not in paths
+     *
+     * @param paths
+     */
+    public void retainAll(Collection<String> paths) {
+        files.keySet().retainAll(paths);
+    }
+
+    public void clear() {
+        files.clear();
+    }
+
+    public int size() {
+        return files.size();
+    }
+
+    /**
+     * Line ranges {start, end} of a method, looking through enclosing classes
+     * for anonymous/local classes ("Foo$1") and lambdas ("lambda$bar$0")
+     *
+     * @param path
+     * @param sl
+     * @return the declarations, empty if the file or method is not indexed
+     */
+    public List<int[]> findMethod(String path, SourceLocation sl) {
+        FileEntry entry = files.get(path);
+        if (entry == null || sl.getClazz() == null || sl.getMethod() == null) {
+            return Collections.emptyList();
+        }
+        String method = methodName(sl.getMethod());
+        String clazz = sl.getClazz();
+        while (true) {
+            List<int[]> ranges = entry.methods.get(clazz + "#" + method);
+            if (ranges != null) {
+                return ranges;
+            }
+            int i = clazz.lastIndexOf('$');
+            if (i <= 0) {
+                return Collections.emptyList();
+            }
+            clazz = clazz.substring(0, i);
+        }
+    }
+
+    /**
+     * The line to show for a frame.
+     *
+     * The frame's own line is kept unless it is missing or clearly stale: for
+     * a method, a line outside the method; for a constructor or static
+     * initializer, a line inside another method of the class (their code also
+     * comes from field initializers and initializer blocks, which are not
+     * indexed). Stale and missing lines map to the method declaration.
+     *
+     * @param path
+     * @param sl
+     * @return
+     */
+    public int resolveLine(String path, SourceLocation sl) {
+        int line = sl.getLineNumber();
+        FileEntry entry = files.get(path);
+        if (entry == null || sl.getClazz() == null || sl.getMethod() == null) {
+            return line;
+        }
+        String clazz = sl.getClazz();
+        String method = methodName(sl.getMethod());
+        List<int[]> ranges = entry.methods.get(clazz + "#" + method);
+        if (ranges == null) {
+            // declared in an enclosing class only as far as the index knows,
+            // trust the frame unless it has no line at all
+            ranges = findMethod(path, sl);
+            if (ranges.isEmpty() || line > 0) {
+                return line;
+            }
+            return ranges.get(0)[0];
+        }
+        if (line <= 0) {
+            return ranges.get(0)[0];
+        }
+        if (contains(ranges, line)) {
+            return line;
+        }
+        if (JavaMethodScanner.CONSTRUCTOR.equals(method) || JavaMethodScanner.STATIC_INITIALIZER.equals(method)) {
+            String prefix = clazz + "#";
+            for (Map.Entry<String, List<int[]>> other : entry.methods.entrySet()) {
+                if (other.getKey().startsWith(prefix) && contains(other.getValue(), line)) {
+                    return ranges.get(0)[0];
+                }
+            }
+            return line;
+        }
+        return ranges.get(0)[0];
+    }
+
+    private static boolean contains(List<int[]> ranges, int line) {
+        for (int[] range : ranges) {
+            if (line >= range[0] && line <= range[1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param method method as found in a frame
+     * @return the source level name of the method
+     */
+    private static String methodName(String method) {
+        // lambda$name$0 -> name, lambdas in field initializers are
+        // lambda$new$0 and lambda$static$0
+        if (method.startsWith("lambda$")) {
+            int end = method.indexOf('$', 7);
+            if (end > 7) {
+                String name = method.substring(7, end);
+                switch (name) {
+                    case "new":
+                        return JavaMethodScanner.CONSTRUCTOR;
+                    case "static":
+                        return JavaMethodScanner.STATIC_INITIALIZER;
+                    default:
+                        return name;
+                }
+            }
+        }
+        return method;
+    }
+
+    private static final class FileEntry {
+
+        private final long stamp;
+        private final Map<String, List<int[]>> methods;
+
+        private FileEntry(long stamp, Map<String, List<int[]>> methods) {
+            this.stamp = stamp;
+            this.methods = methods;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/*
+* MIT License
+* 
+* Copyright (c) 2016 Graeme Ingleby - graeme@ingleby.net
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy
+* of this software and associated documentation files (the "Software"), to deal
+* in the Software without restriction, including without limitation the rights
+* to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the Software is
+* furnished to do so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+* FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+* OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+* SOFTWARE.
+*/
+package net.ingleby.logmx.plugin.source;
+
+import com.lightyosft.logmx.gotosource.business.SourceLocation;
+
+/**
+ * Maps stack trace frames to source file paths
+ */
+public final class SourcePaths {
+
+    private SourcePaths() {
+    }
+
+    /**
+     * Relative path of the source file declaring a frame, e.g. "a/b/Foo.java".
+     *
+     * Frames without a file name ("Unknown Source") fall back to the top level
+     * class name. Other file names are kept as they are, so frames of Groovy,
+     * Kotlin or Scala classes resolve to their own sources.
+     *
+     * @param sl
+     * @return
+     */
+    public static String sourcePath(SourceLocation sl) {
+        String fileName = sl.getFileName();
+        if (fileName == null || fileName.isEmpty()) {
+            String clazz = sl.getClazz();
+            int i = clazz.indexOf('$');
+            fileName = (i > 0 ? clazz.substring(0, i) : clazz) + ".java";
+        }
+        String packageName = sl.getPackageName();
+        if (packageName == null || packageName.isEmpty()) {
+            return fileName;
+        }
+        return packageName.replace(".", "/") + "/" + fileName;
+    }
+}
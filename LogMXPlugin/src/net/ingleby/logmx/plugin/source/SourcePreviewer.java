@@ -0,0 +1,158 @@
+/*
+* MIT License
+* 
+* Copyright (c) 2016 Graeme Ingleby - graeme@ingleby.net
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy
+* of this software and associated documentation files (the "Software"), to deal
+* in the Software without restriction, including without limitation the rights
+* to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the Software is
+* furnished to do so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+* FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+* OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+* SOFTWARE.
+*/
+package net.ingleby.logmx.plugin.source;
+
+import com.lightyosft.logmx.gotosource.GotoSourceUtils;
+import com.lightyosft.logmx.gotosource.business.SourceLocation;
+import com.lightyosft.logmx.gotosource.business.SourcePreview;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import net.ingleby.logmx.plugin.logging.AsyncLogChannel;
+
+/**
+ * Builds LogMX previews for stack trace frames from a SourceRepository.
+ *
+ * Lines are resolved through the MethodIndex (missing or stale line numbers go
+ * to the method declaration) and previews are cached per file, modification
+ * stamp and line.
+ */
+public class SourcePreviewer {
+
+    private final SourceRepository repository;
+    private final MethodIndex index;
+    private final AsyncLogChannel log;
+    private final Map<String, SourcePreview> cache;
+
+    /**
+     * @param repository
+     * @param index
+     * @param log
+     * @param cacheSize maximum number of cached previews
+     */
+    public SourcePreviewer(SourceRepository repository, MethodIndex index, AsyncLogChannel log, final int cacheSize) {
+        this.repository = repository;
+        this.index = index;
+        this.log = log;
+        this.cache = new LinkedHashMap<String, SourcePreview>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, SourcePreview> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /**
+     * Generate a preview snippet for the specified frame
+     *
+     * @param sl
+     * @param client address of the LogMX client, or null
+     * @return
+     */
+    public SourcePreview preview(SourceLocation sl, String client) {
+        String path = SourcePaths.sourcePath(sl);
+        SourceFile file = repository.find(path, client);
+        if (file == null) {
+            log.miss(path, "Unable to find \"" + path + "\"");
+            return new SourcePreview(false, "Unable to find \"" + sl.getFullyQualifiedMethod() + "(" + sl.getFileName() + ":" + sl.getLineNumber() + ")\" in this workspace", 0);
+        }
+        try {
+            int line = resolveLine(file, sl);
+            String key = file.getPath() + "|" + file.lastModified() + "|" + line;
+            SourcePreview preview;
+            synchronized (cache) {
+                preview = cache.get(key);
+            }
+            if (preview == null) {
+                try (InputStream in = file.openStream()) {
+                    preview = GotoSourceUtils.previewFile(in, line);
+                }
+                if (preview.ok) {
+                    synchronized (cache) {
+                        cache.put(key, preview);
+                    }
+                }
+            }
+            return preview;
+        } catch (IOException ex) {
+            log.log(AsyncLogChannel.CATEGORY_RESOLVE, Level.WARNING, "Unable to parse \"" + sl.getFileName() + "\": " + ex.getLocalizedMessage(), null);
+            return new SourcePreview(false, "Unable to parse \"" + sl.getFileName() + "\": " + ex.getLocalizedMessage(), 0);
+        }
+    }
+
+    /**
+     * The line to show for a frame, (re-)indexing the file if it changed
+     *
+     * @param file
+     * @param sl
+     * @return
+     * @throws IOException
+     */
+    public int resolveLine(SourceFile file, SourceLocation sl) throws IOException {
+        if (!file.getPath().endsWith(".java")) {
+            // Groovy, Kotlin, ... frames keep their line
+            return sl.getLineNumber();
+        }
+        index(file);
+        return index.resolveLine(file.getPath(), sl);
+    }
+
+    /**
+     * Add a file to the method index unless it is indexed at its current stamp
+     *
+     * @param file
+     * @throws IOException
+     */
+    public void index(SourceFile file) throws IOException {
+        long stamp = file.lastModified();
+        if (!index.isCurrent(file.getPath(), stamp)) {
+            index.put(file.getPath(), stamp, readText(file));
+        }
+    }
+
+    public void clearCache() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * Read a source file with the platform encoding (as the LogMX preview does)
+     */
+    private static String readText(SourceFile file) throws IOException {
+        StringBuilder text = new StringBuilder();
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(file.openStream()))) {
+            char[] buffer = new char[8192];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                text.append(buffer, 0, n);
+            }
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,183 @@
+/*
+* MIT License
+* 
+* Copyright (c) 2016 Graeme Ingleby - graeme@ingleby.net
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy
+* of this software and associated documentation files (the "Software"), to deal
+* in the Software without restriction, including without limitation the rights
+* to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the Software is
+* furnished to do so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+* FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+* OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+* SOFTWARE.
+*/
+package net.ingleby.logmx.plugin.headless;
+
+import com.lightyosft.logmx.gotosource.GotoSourceUtils;
+import com.lightyosft.logmx.gotosource.business.SourceLocation;
+import com.lightyosft.logmx.gotosource.business.SourcePreview;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import net.ingleby.logmx.plugin.network.GotoSourceProtocol;
+import org.netbeans.junit.NbTestCase;
+
+public class HeadlessGotoSourceTest extends NbTestCase {
+
+    private static final int TIMEOUT = 2000;
+
+    private static final String FOO = ""
+            + "package a;\n"                            // 1
+            + "public class Foo {\n"                    // 2
+            + "    void run() {\n"                      // 3
+            + "        System.out.println(\"foo\");\n"  // 4
+            + "    }\n"                                 // 5
+            + "}\n";                                    // 6
+
+    private static final String BAR = ""
+            + "package b;\n"                            // 1
+            + "public class Bar {\n"                    // 2
+            + "    void call() {\n"                     // 3
+            + "        System.out.println(\"bar\");\n"  // 4
+            + "    }\n"                                 // 5
+            + "}\n";                                    // 6
+
+    private File dir;
+    private File jar;
+    private HeadlessGotoSource headless;
+
+    public HeadlessGotoSourceTest(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        clearWorkDir();
+        dir = new File(getWorkDir(), "src");
+        write(new File(dir, "a/Foo.java"), FOO);
+        jar = new File(getWorkDir(), "sources.jar");
+        writeJar(jar, "b/Bar.java", BAR);
+        headless = new HeadlessGotoSource("127.0.0.1", 0, Arrays.asList(dir, jar), 4, 3600);
+        headless.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        headless.stop();
+    }
+
+    public void testPreviewFromDirectory() throws Exception {
+        assertEquals(expected(FOO, 4), preview("a.Foo.run", "Foo.java", 4));
+    }
+
+    public void testPreviewFromJar() throws Exception {
+        assertEquals(expected(BAR, 4), preview("b.Bar.call", "Bar.java", 4));
+    }
+
+    public void testMiss() throws Exception {
+        SourcePreview preview = SourcePreview.fromString(send(GotoSourceProtocol.CMD_PREVIEW, "c.Baz.run", "Baz.java", 4));
+        assertFalse(preview.ok);
+    }
+
+    public void testMissingLineResolvedThroughMethodIndex() throws Exception {
+        assertEquals(expected(FOO, 3), preview("a.Foo.run", "Foo.java", -1));
+        assertEquals(expected(BAR, 3), preview("b.Bar.call", "", -1));
+    }
+
+    public void testInvalidRequest() throws Exception {
+        assertEquals("null", GotoSourceProtocol.send(headless.getAddress(), "cmd=\"preview\" nonsense", TIMEOUT));
+        assertEquals(GotoSourceProtocol.RESPONSE_OK, GotoSourceProtocol.send(headless.getAddress(), "cmd=\"test\"", TIMEOUT));
+        // goto is answered but ignored
+        assertEquals("null", send(GotoSourceProtocol.CMD_GOTO, "a.Foo.run", "Foo.java", 4));
+    }
+
+    public void testIdleConnectionsTimeOut() throws Exception {
+        List<Socket> idle = new ArrayList<>();
+        try {
+            // as many silent clients as handler threads
+            for (int i = 0; i < 4; i++) {
+                Socket socket = new Socket();
+                socket.connect(headless.getAddress(), TIMEOUT);
+                idle.add(socket);
+            }
+            assertEquals(GotoSourceProtocol.RESPONSE_OK, GotoSourceProtocol.send(headless.getAddress(), "cmd=\"test\"", 15000));
+            for (Socket socket : idle) {
+                socket.setSoTimeout(15000);
+                assertEquals(-1, socket.getInputStream().read());
+            }
+        } finally {
+            for (Socket socket : idle) {
+                socket.close();
+            }
+        }
+    }
+
+    public void testRescanPicksUpChanges() throws Exception {
+        String changed = FOO.replace("\"foo\"", "\"changed\"");
+        File foo = new File(dir, "a/Foo.java");
+        write(foo, changed);
+        assertTrue(foo.setLastModified(foo.lastModified() + 10000));
+        write(new File(dir, "a/Added.java"), FOO.replace("Foo", "Added"));
+        writeJar(jar, "b/Bar.java", "\n\n" + BAR);
+        assertTrue(jar.setLastModified(jar.lastModified() + 10000));
+
+        headless.rescan();
+
+        assertEquals(expected(changed, 4), preview("a.Foo.run", "Foo.java", 4));
+        assertEquals(expected(FOO.replace("Foo", "Added"), 4), preview("a.Added.run", "Added.java", 4));
+        // the declaration moved down with the jar entry
+        assertEquals(expected("\n\n" + BAR, 5), preview("b.Bar.call", "Bar.java", -1));
+
+        assertTrue(foo.delete());
+        headless.rescan();
+        assertFalse(SourcePreview.fromString(send(GotoSourceProtocol.CMD_PREVIEW, "a.Foo.run", "Foo.java", 4)).ok);
+    }
+
+    private String preview(String method, String file, int line) throws IOException {
+        String response = send(GotoSourceProtocol.CMD_PREVIEW, method, file, line);
+        SourcePreview preview = SourcePreview.fromString(response);
+        assertTrue(response, preview.ok);
+        return response;
+    }
+
+    private String send(String command, String method, String file, int line) throws IOException {
+        SourceLocation sl = new SourceLocation(method, file, line);
+        return GotoSourceProtocol.send(headless.getAddress(), GotoSourceProtocol.format(command, sl), TIMEOUT);
+    }
+
+    private static String expected(String source, int line) throws IOException {
+        return GotoSourceUtils.previewFile(new ByteArrayInputStream(source.getBytes(StandardCharsets.UTF_8)), line).toString();
+    }
+
+    private static void write(File file, String text) throws IOException {
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void writeJar(File file, String path, String text) throws IOException {
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file))) {
+            out.putNextEntry(new ZipEntry(path));
+            out.write(text.getBytes(StandardCharsets.UTF_8));
+            out.closeEntry();
+        }
+    }
+}
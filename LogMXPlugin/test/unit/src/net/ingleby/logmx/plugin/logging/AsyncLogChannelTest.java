@@ -0,0 +1,183 @@
+/*
+* MIT License
+* 
+* Copyright (c) 2016 Graeme Ingleby - graeme@ingleby.net
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy
+* of this software and associated documentation files (the "Software"), to deal
+* in the Software without restriction, including without limitation the rights
+* to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the Software is
+* furnished to do so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+* FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+* OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+* SOFTWARE.
+*/
+package net.ingleby.logmx.plugin.logging;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import java.util.logging.SimpleFormatter;
+import org.netbeans.junit.NbTestCase;
+
+public class AsyncLogChannelTest extends NbTestCase {
+
+    private Logger sink;
+    private RecordingHandler handler;
+
+    public AsyncLogChannelTest(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        sink = Logger.getLogger("logmx.test." + getName());
+        sink.setUseParentHandlers(false);
+        sink.setLevel(Level.ALL);
+        handler = new RecordingHandler();
+        sink.addHandler(handler);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        sink.removeHandler(handler);
+    }
+
+    public void testFullRingOverwritesOldestAndCountsDropped() throws Exception {
+        AsyncLogChannel channel = new AsyncLogChannel(sink, 4);
+        channel.setLimit(AsyncLogChannel.CATEGORY_PLUGIN, 1, 1000);
+        channel.start();
+
+        // hold the publishing thread inside the first message
+        CountDownLatch release = new CountDownLatch(1);
+        handler.block = release;
+        channel.info("first");
+        assertTrue(handler.blocked.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 7; i++) {
+            channel.info("m" + i);
+        }
+        release.countDown();
+        channel.stop();
+
+        // m0..m2 were overwritten by m4..m6
+        assertEquals(Arrays.asList("first", "3 log messages dropped (log buffer full)", "m3", "m4", "m5", "m6"),
+                handler.messages());
+    }
+
+    public void testCategoryLimitCountsSuppressed() throws Exception {
+        AsyncLogChannel channel = new AsyncLogChannel(sink, 64);
+        channel.setLimit(AsyncLogChannel.CATEGORY_PLUGIN, 1, 2);
+        channel.setLimit(AsyncLogChannel.CATEGORY_RESOLVE, 3, 100);
+        channel.start();
+        for (int i = 0; i < 5; i++) {
+            channel.info("p" + i);
+        }
+        for (int i = 0; i < 9; i++) {
+            channel.log(AsyncLogChannel.CATEGORY_RESOLVE, Level.WARNING, "r" + i, null);
+        }
+        channel.stop();
+
+        List<String> messages = handler.messages();
+        assertEquals(Arrays.asList("p0", "p1", "r0", "r3", "r6"), messages.subList(0, 5));
+        assertEquals(6, messages.size());
+        String summary = messages.get(5);
+        assertTrue(summary, summary.startsWith("GotoSource log summary:"));
+        assertTrue(summary, summary.contains("plugin 3"));
+        assertTrue(summary, summary.contains("resolve 6"));
+    }
+
+    public void testMissesLoggedOnceAndSummarizedInOneLine() throws Exception {
+        AsyncLogChannel channel = new AsyncLogChannel(sink, 64);
+        channel.start();
+        for (int i = 0; i < 5; i++) {
+            channel.miss("a/A.java", "Unable to find a/A.java");
+        }
+        for (int i = 0; i < 4; i++) {
+            channel.miss("b/B.java", "Unable to find b/B.java");
+        }
+        for (int i = 0; i < 3; i++) {
+            channel.miss("c/C.java", "Unable to find c/C.java");
+        }
+        for (int i = 0; i < 2; i++) {
+            channel.miss("d/D.java", "Unable to find d/D.java");
+        }
+        channel.miss("e/E.java", "Unable to find e/E.java");
+        channel.stop();
+
+        assertEquals(Arrays.asList(
+                "Unable to find a/A.java",
+                "Unable to find b/B.java",
+                "Unable to find c/C.java",
+                "Unable to find d/D.java",
+                "Unable to find e/E.java",
+                "GotoSource log summary: 10 repeated misses of 4 sources (\"a/A.java\" x4, \"b/B.java\" x3, \"c/C.java\" x2, ...)"),
+                handler.messages());
+    }
+
+    public void testNothingToSummarize() throws Exception {
+        AsyncLogChannel channel = new AsyncLogChannel(sink, 64);
+        channel.start();
+        channel.miss("a/A.java", "Unable to find a/A.java");
+        channel.stop();
+        assertEquals(Collections.singletonList("Unable to find a/A.java"), handler.messages());
+    }
+
+    private static final class RecordingHandler extends Handler {
+
+        private final List<LogRecord> records = new ArrayList<>();
+        private final SimpleFormatter formatter = new SimpleFormatter();
+        private final CountDownLatch blocked = new CountDownLatch(1);
+        private volatile CountDownLatch block = null;
+
+        @Override
+        public void publish(LogRecord record) {
+            synchronized (records) {
+                records.add(record);
+            }
+            CountDownLatch latch = block;
+            if (latch != null) {
+                block = null;
+                blocked.countDown();
+                try {
+                    latch.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        private List<String> messages() {
+            List<String> messages = new ArrayList<>();
+            synchronized (records) {
+                for (LogRecord record : records) {
+                    messages.add(formatter.formatMessage(record));
+                }
+            }
+            return messages;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*
+* MIT License
+* 
+* Copyright (c) 2016 Graeme Ingleby - graeme@ingleby.net
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy
+* of this software and associated documentation files (the "Software"), to deal
+* in the Software without restriction, including without limitation the rights
+* to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the Software is
+* furnished to do so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+* FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+* OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+* SOFTWARE.
+*/
+package net.ingleby.logmx.plugin.network;
+
+import com.lightyosft.logmx.gotosource.GotoSourceManager;
+import com.lightyosft.logmx.gotosource.business.PluginConfig;
+import com.lightyosft.logmx.gotosource.business.SourceLocation;
+import com.lightyosft.logmx.gotosource.business.SourcePreview;
+import com.lightyosft.logmx.gotosource.util.PluginLogger;
+import java.util.concurrent.Executors;
+
+/**
+ * A GotoSourceBrokerNode in its own JVM, for tests that kill an IDE.
+ *
+ * Arguments: host port file. The node answers previews of file, prints
+ * "port N" with its listen port and runs until stdin is closed.
+ */
+public class BrokerNodeProcess {
+
+    public static void main(String[] args) throws Exception {
+        final String file = args[2];
+        GotoSourceManager manager = new GotoSourceManager() {
+            @Override
+            public void goToSourceLocation(SourceLocation sl) {
+            }
+
+            @Override
+            public SourcePreview previewSourceLocation(SourceLocation sl) {
+                if (file.equals(sl.getFileName())) {
+                    return new SourcePreview(true, file, 1);
+                }
+                return new SourcePreview(false, "Unable to find " + sl.getFileName(), -1);
+            }
+        };
+        PluginLogger logger = new PluginLogger() {
+            @Override
+            public void info(String msg) {
+            }
+
+            @Override
+            public void error(String msg) {
+            }
+
+            @Override
+            public void error(String msg, Throwable t) {
+            }
+        };
+        GotoSourceBrokerNode node = new GotoSourceBrokerNode(manager, logger, Executors.newScheduledThreadPool(4),
+                Executors.newCachedThreadPool(), new PluginConfig(args[0], Integer.parseInt(args[1]), true), 2000);
+        node.setHeartbeatInterval(100);
+        node.start();
+        System.out.println("port " + node.getAddress().getPort());
+        System.out.flush();
+        while (System.in.read() != -1) {
+            // parent still there
+        }
+        System.exit(0);
+    }
+}
@@ -0,0 +1,372 @@
+/*
+* MIT License
+* 
+* Copyright (c) 2016 Graeme Ingleby - graeme@ingleby.net
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy
+* of this software and associated documentation files (the "Software"), to deal
+* in the Software without restriction, including without limitation the rights
+* to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the Software is
+* furnished to do so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+* FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+* OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+* SOFTWARE.
+*/
+package net.ingleby.logmx.plugin.network;
+
+import com.lightyosft.logmx.gotosource.GotoSourceManager;
+import com.lightyosft.logmx.gotosource.business.PluginConfig;
+import com.lightyosft.logmx.gotosource.business.SourceLocation;
+import com.lightyosft.logmx.gotosource.business.SourcePreview;
+import com.lightyosft.logmx.gotosource.util.PluginLogger;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.netbeans.junit.NbTestCase;
+
+public class GotoSourceBrokerNodeTest extends NbTestCase {
+
+    private static final String HOST = "127.0.0.1";
+    private static final int TIMEOUT = 2000;
+
+    private ScheduledExecutorService executor;
+    private ExecutorService fanOut;
+    private final List<GotoSourceBrokerNode> nodes = new ArrayList<>();
+
+    public GotoSourceBrokerNodeTest(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        executor = Executors.newScheduledThreadPool(8);
+        fanOut = Executors.newCachedThreadPool();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (GotoSourceBrokerNode node : nodes) {
+            node.stop();
+        }
+        executor.shutdownNow();
+        fanOut.shutdownNow();
+    }
+
+    public void testPreviewFansOutToPeers() throws Exception {
+        StubManager local = new StubManager("Local.java");
+        StubManager remote = new StubManager("Remote.java");
+        GotoSourceBrokerNode broker = startBroker(local);
+        startPeer(remote, broker);
+
+        assertEquals("Local.java", preview(broker, "Local.java").text);
+        assertEquals("Remote.java", preview(broker, "Remote.java").text);
+        assertFalse(preview(broker, "Missing.java").ok);
+    }
+
+    public void testGotoRoutedToPreviewingPeer() throws Exception {
+        StubManager local = new StubManager("Local.java");
+        StubManager first = new StubManager("First.java");
+        StubManager second = new StubManager("Second.java");
+        GotoSourceBrokerNode broker = startBroker(local);
+        startPeer(first, broker);
+        startPeer(second, broker);
+
+        // routed from the preview that preceded the goto
+        assertTrue(preview(broker, "Second.java").ok);
+        send(broker, GotoSourceProtocol.CMD_GOTO, "Second.java");
+        assertEquals("Second.java", second.gotos.poll(TIMEOUT, TimeUnit.MILLISECONDS));
+
+        // no preview, the goto asks all IDEs
+        send(broker, GotoSourceProtocol.CMD_GOTO, "First.java");
+        assertEquals("First.java", first.gotos.poll(TIMEOUT, TimeUnit.MILLISECONDS));
+
+        // nobody knows the file, the local IDE reports it
+        send(broker, GotoSourceProtocol.CMD_GOTO, "Missing.java");
+        assertEquals("Missing.java", local.gotos.poll(TIMEOUT, TimeUnit.MILLISECONDS));
+
+        assertTrue(local.gotos.isEmpty());
+        assertTrue(first.gotos.isEmpty());
+        assertTrue(second.gotos.isEmpty());
+    }
+
+    public void testClientForwardedToPeers() throws Exception {
+        GotoSourceBrokerNode broker = startBroker(new StubManager("Local.java"));
+        StubManager remote = new StubManager("Remote.java");
+        startPeer(remote, broker);
+
+        SourceLocation sl = new SourceLocation("pkg.Remote.run", "Remote.java", 1);
+        String request = GotoSourceProtocol.format(GotoSourceProtocol.CMD_PREVIEW, sl, "10.0.0.9");
+        assertTrue(SourcePreview.fromString(GotoSourceProtocol.send(broker.getAddress(), request, TIMEOUT)).ok);
+        assertEquals("10.0.0.9", remote.clients.poll(TIMEOUT, TimeUnit.MILLISECONDS));
+
+        // a direct request is from the connecting client
+        preview(broker, "Remote.java");
+        assertEquals(HOST, remote.clients.poll(TIMEOUT, TimeUnit.MILLISECONDS));
+    }
+
+    public void testOnlyLocalPeersAccepted() throws Exception {
+        assertTrue(GotoSourceBroker.isLocal(InetAddress.getByName("127.0.0.1")));
+        assertTrue(GotoSourceBroker.isLocal(InetAddress.getByName("::1")));
+        // TEST-NET-1, never assigned to a local interface
+        assertFalse(GotoSourceBroker.isLocal(InetAddress.getByName("192.0.2.1")));
+    }
+
+    public void testPeerDroppedWhenNotListening() throws Exception {
+        GotoSourceBrokerNode broker = startBroker(new StubManager("Local.java"));
+        int closedPort;
+        try (ServerSocket ss = new ServerSocket(0)) {
+            closedPort = ss.getLocalPort();
+        }
+        InetSocketAddress dead = new InetSocketAddress(HOST, closedPort);
+        assertEquals(GotoSourceProtocol.RESPONSE_OK,
+                GotoSourceProtocol.send(broker.getAddress(), GotoSourceProtocol.format(GotoSourceProtocol.CMD_REGISTER, closedPort), TIMEOUT));
+        assertTrue(broker.getPeers().contains(dead));
+
+        // a miss waits for every IDE, so the refused connection is seen
+        assertFalse(preview(broker, "Missing.java").ok);
+        assertFalse(broker.getPeers().contains(dead));
+    }
+
+    public void testPeerTakesOverWhenBrokerStops() throws Exception {
+        GotoSourceBrokerNode broker = startBroker(new StubManager("Local.java"));
+        GotoSourceBrokerNode peer = startPeer(new StubManager("Remote.java"), broker, 100);
+        int port = broker.getAddress().getPort();
+        assertFalse(peer.isBroker());
+
+        broker.stop();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!peer.isBroker() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertTrue(peer.isBroker());
+        assertEquals(port, peer.getAddress().getPort());
+        assertEquals("Remote.java", preview(peer, "Remote.java").text);
+    }
+
+    public void testPeerKeepsPortWhenOwnerIsNotBroker() throws Exception {
+        // an IDE with broker mode off owns the port
+        GotoSourceServer plain = new GotoSourceServer(new StubManager("Plain.java"), new NullLogger(), executor);
+        plain.start(HOST, 0);
+        try {
+            RecordingLogger log = new RecordingLogger();
+            PluginConfig config = new PluginConfig(HOST, plain.getAddress().getPort(), true);
+            GotoSourceBrokerNode peer = new GotoSourceBrokerNode(new StubManager("Remote.java"), log, executor, fanOut, config, TIMEOUT);
+            peer.setHeartbeatInterval(20);
+            peer.start();
+            nodes.add(peer);
+            InetSocketAddress address = peer.getAddress();
+
+            Thread.sleep(500);
+            assertFalse(peer.isBroker());
+            assertEquals(address, peer.getAddress());
+            assertEquals(log.errors.toString(), 1, log.errors.size());
+        } finally {
+            plain.stop();
+        }
+    }
+
+    public void testPeerTakesOverWhenBrokerProcessIsKilled() throws Exception {
+        Process broker = startProcess(0, "Killed.java");
+        try {
+            int port = processPort(broker);
+            PluginConfig config = new PluginConfig(HOST, port, true);
+            GotoSourceBrokerNode peer = new GotoSourceBrokerNode(new StubManager("Remote.java"), new NullLogger(), executor, fanOut, config, TIMEOUT);
+            peer.setHeartbeatInterval(100);
+            peer.start();
+            nodes.add(peer);
+            assertFalse(peer.isBroker());
+            assertEquals("Remote.java", preview(new InetSocketAddress(HOST, port), "Remote.java").text);
+
+            // no unregister, no clean close
+            broker.destroy();
+            broker.waitFor();
+            long deadline = System.currentTimeMillis() + 5000;
+            while (!peer.isBroker() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            assertTrue(peer.isBroker());
+            assertEquals(port, peer.getAddress().getPort());
+            assertEquals("Remote.java", preview(peer, "Remote.java").text);
+        } finally {
+            broker.destroy();
+        }
+    }
+
+    public void testKilledPeerProcessDropped() throws Exception {
+        GotoSourceBrokerNode broker = startBroker(new StubManager("Local.java"));
+        Process peer = startProcess(broker.getAddress().getPort(), "Killed.java");
+        try {
+            InetSocketAddress address = new InetSocketAddress(HOST, processPort(peer));
+            long deadline = System.currentTimeMillis() + 5000;
+            while (!broker.getPeers().contains(address) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            assertTrue(broker.getPeers().contains(address));
+            assertEquals("Killed.java", preview(broker, "Killed.java").text);
+
+            peer.destroy();
+            peer.waitFor();
+            assertFalse(preview(broker, "Killed.java").ok);
+            assertFalse(broker.getPeers().contains(address));
+        } finally {
+            peer.destroy();
+        }
+    }
+
+    /**
+     * Start a node in a child JVM on the test classpath
+     */
+    private static Process startProcess(int port, String file) throws IOException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        return new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), BrokerNodeProcess.class.getName(),
+                HOST, String.valueOf(port), file).redirectErrorStream(true).start();
+    }
+
+    private static int processPort(Process process) throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream()));
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (line.startsWith("port ")) {
+                return Integer.parseInt(line.substring(5));
+            }
+        }
+        fail("Node process exited before listening");
+        return -1;
+    }
+
+    private GotoSourceBrokerNode startBroker(GotoSourceManager manager) throws IOException {
+        GotoSourceBrokerNode node = new GotoSourceBrokerNode(manager, new NullLogger(), executor, fanOut, new PluginConfig(HOST, 0, true), TIMEOUT);
+        node.start();
+        nodes.add(node);
+        assertTrue(node.isBroker());
+        return node;
+    }
+
+    private GotoSourceBrokerNode startPeer(GotoSourceManager manager, GotoSourceBrokerNode broker) throws IOException {
+        return startPeer(manager, broker, 10000);
+    }
+
+    private GotoSourceBrokerNode startPeer(GotoSourceManager manager, GotoSourceBrokerNode broker, long heartbeat) throws IOException {
+        PluginConfig config = new PluginConfig(HOST, broker.getAddress().getPort(), true);
+        GotoSourceBrokerNode node = new GotoSourceBrokerNode(manager, new NullLogger(), executor, fanOut, config, TIMEOUT);
+        node.setHeartbeatInterval(heartbeat);
+        node.start();
+        nodes.add(node);
+        assertFalse(node.isBroker());
+        assertTrue(broker.getPeers().contains(node.getAddress()));
+        return node;
+    }
+
+    private static SourcePreview preview(GotoSourceBrokerNode node, String file) throws IOException {
+        return preview(node.getAddress(), file);
+    }
+
+    private static SourcePreview preview(InetSocketAddress address, String file) throws IOException {
+        SourceLocation sl = new SourceLocation("pkg." + file.replace(".java", "") + ".run", file, 1);
+        String response = GotoSourceProtocol.send(address, GotoSourceProtocol.format(GotoSourceProtocol.CMD_PREVIEW, sl), TIMEOUT);
+        assertNotNull(response);
+        return SourcePreview.fromString(response);
+    }
+
+    private static String send(GotoSourceBrokerNode node, String command, String file) throws IOException {
+        SourceLocation sl = new SourceLocation("pkg." + file.replace(".java", "") + ".run", file, 1);
+        return GotoSourceProtocol.send(node.getAddress(), GotoSourceProtocol.format(command, sl), TIMEOUT);
+    }
+
+    /**
+     * An IDE that has exactly one file open
+     */
+    private static final class StubManager implements ClientGotoSourceManager {
+
+        private final String file;
+        private final BlockingQueue<String> gotos = new LinkedBlockingQueue<>();
+        private final BlockingQueue<String> clients = new LinkedBlockingQueue<>();
+
+        private StubManager(String file) {
+            this.file = file;
+        }
+
+        @Override
+        public void goToSourceLocation(SourceLocation sl) {
+            gotos.add(sl.getFileName());
+        }
+
+        @Override
+        public SourcePreview previewSourceLocation(SourceLocation sl) {
+            if (file.equals(sl.getFileName())) {
+                return new SourcePreview(true, file, 1);
+            }
+            return new SourcePreview(false, "Unable to find " + sl.getFileName(), -1);
+        }
+
+        @Override
+        public void goToSourceLocation(SourceLocation sl, String client) {
+            goToSourceLocation(sl);
+        }
+
+        @Override
+        public SourcePreview previewSourceLocation(SourceLocation sl, String client) {
+            SourcePreview preview = previewSourceLocation(sl);
+            if (preview.ok) {
+                clients.add(client);
+            }
+            return preview;
+        }
+    }
+
+    private static final class RecordingLogger implements PluginLogger {
+
+        private final List<String> errors = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void info(String msg) {
+        }
+
+        @Override
+        public void error(String msg) {
+            errors.add(msg);
+        }
+
+        @Override
+        public void error(String msg, Throwable t) {
+            errors.add(msg);
+        }
+    }
+
+    private static final class NullLogger implements PluginLogger {
+
+        @Override
+        public void info(String msg) {
+        }
+
+        @Override
+        public void error(String msg) {
+        }
+
+        @Override
+        public void error(String msg, Throwable t) {
+        }
+    }
+}
@@ -0,0 +1,219 @@
+/*
+* MIT License
+* 
+* Copyright (c) 2016 Graeme Ingleby - graeme@ingleby.net
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy
+* of this software and associated documentation files (the "Software"), to deal
+* in the Software without restriction, including without limitation the rights
+* to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the Software is
+* furnished to do so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+* FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+* OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+* SOFTWARE.
+*/
+package net.ingleby.logmx.plugin.source;
+
+import com.lightyosft.logmx.gotosource.business.SourceLocation;
+import java.io.File;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import org.netbeans.junit.NbTestCase;
+
+/**
+ * Checks the scanner against the class and method names javac produces, by
+ * compiling and running a sample that records its own stack frames
+ */
+public class JavaMethodScannerTest extends NbTestCase {
+
+    private static final String SAMPLE = ""
+            + "import java.util.ArrayList;\n"
+            + "import java.util.List;\n"
+            + "public class Sample {\n"
+            + "    static final List<StackTraceElement> FRAMES = new ArrayList<>();\n"
+            + "    static StackTraceElement here() {\n"
+            + "        return new Throwable().getStackTrace()[1];\n"
+            + "    }\n"
+            + "    static {\n"
+            + "        FRAMES.add(here());\n"
+            + "    }\n"
+            + "    final StackTraceElement field = here();\n"
+            + "    Sample() {\n"
+            + "        FRAMES.add(here());\n"
+            + "        FRAMES.add(field);\n"
+            + "    }\n"
+            + "    void plain() {\n"
+            + "        FRAMES.add(here()); // not a method(\n"
+            + "    }\n"
+            + "    void anonymous() {\n"
+            + "        new Runnable() {\n"
+            + "            public void run() {\n"
+            + "                FRAMES.add(here());\n"
+            + "                new Runnable() {\n"
+            + "                    public void run() {\n"
+            + "                        FRAMES.add(here());\n"
+            + "                    }\n"
+            + "                }.run();\n"
+            + "            }\n"
+            + "        }.run();\n"
+            + "    }\n"
+            + "    void local() {\n"
+            + "        class Helper {\n"
+            + "            void help() {\n"
+            + "                FRAMES.add(here());\n"
+            + "            }\n"
+            + "        }\n"
+            + "        new Helper().help();\n"
+            + "    }\n"
+            + "    void otherLocal() {\n"
+            + "        class Helper {\n"
+            + "            void help() {\n"
+            + "                FRAMES.add(here());\n"
+            + "            }\n"
+            + "        }\n"
+            + "        new Helper().help();\n"
+            + "        new Runnable() {\n"
+            + "            public void run() {\n"
+            + "                FRAMES.add(here());\n"
+            + "            }\n"
+            + "        }.run();\n"
+            + "    }\n"
+            + "    void lambda() {\n"
+            + "        Runnable r = () -> {\n"
+            + "            FRAMES.add(here());\n"
+            + "        };\n"
+            + "        r.run();\n"
+            + "    }\n"
+            + "    static class Nested {\n"
+            + "        void nested() {\n"
+            + "            FRAMES.add(here());\n"
+            + "        }\n"
+            + "    }\n"
+            + "    enum Color {\n"
+            + "        RED(\"r\") {\n"
+            + "            String code() {\n"
+            + "                FRAMES.add(here());\n"
+            + "                return \"R\";\n"
+            + "            }\n"
+            + "        },\n"
+            + "        GREEN(\"g\") {\n"
+            + "            String code() {\n"
+            + "                FRAMES.add(here());\n"
+            + "                return \"G\";\n"
+            + "            }\n"
+            + "        },\n"
+            + "        BLUE(\"b\");\n"
+            + "        private final String c;\n"
+            + "        Color(String c) {\n"
+            + "            this.c = c;\n"
+            + "        }\n"
+            + "        String code() {\n"
+            + "            FRAMES.add(here());\n"
+            + "            return c;\n"
+            + "        }\n"
+            + "    }\n"
+            + "    public static List<StackTraceElement> run() {\n"
+            + "        Sample s = new Sample();\n"
+            + "        s.plain();\n"
+            + "        s.anonymous();\n"
+            + "        s.local();\n"
+            + "        s.otherLocal();\n"
+            + "        s.lambda();\n"
+            + "        new Nested().nested();\n"
+            + "        for (Color c : Color.values()) {\n"
+            + "            c.code();\n"
+            + "        }\n"
+            + "        return FRAMES;\n"
+            + "    }\n"
+            + "}\n";
+
+    private List<StackTraceElement> frames;
+
+    public JavaMethodScannerTest(String name) {
+        super(name);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected void setUp() throws Exception {
+        clearWorkDir();
+        File dir = getWorkDir();
+        File source = new File(dir, "Sample.java");
+        Files.write(source.toPath(), SAMPLE.getBytes(StandardCharsets.UTF_8));
+        JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+        assertEquals(0, javac.run(null, null, null, "-d", dir.getPath(), source.getPath()));
+        try (URLClassLoader loader = new URLClassLoader(new URL[]{dir.toURI().toURL()}, null)) {
+            Method run = loader.loadClass("Sample").getMethod("run");
+            frames = new ArrayList<>((List<StackTraceElement>) run.invoke(null));
+        }
+    }
+
+    public void testFramesInsideScannedMethods() {
+        Map<String, List<int[]>> methods = JavaMethodScanner.scan(SAMPLE);
+        Set<String> classes = new HashSet<>();
+        for (StackTraceElement frame : frames) {
+            String method = frame.getMethodName();
+            if (method.startsWith("lambda$")) {
+                method = method.substring(7, method.indexOf('$', 7));
+            }
+            if (frame.getLineNumber() == 11) {
+                // field initializer, runs as part of <init>
+                continue;
+            }
+            String key = frame.getClassName() + "#" + method;
+            List<int[]> ranges = methods.get(key);
+            assertNotNull(key + " not in " + methods.keySet(), ranges);
+            assertTrue(key + ":" + frame.getLineNumber(), contains(ranges, frame.getLineNumber()));
+            classes.add(frame.getClassName());
+        }
+        // every kind of class in the sample was seen
+        assertTrue(classes.toString(), classes.containsAll(java.util.Arrays.asList(
+                "Sample", "Sample$1", "Sample$1$1", "Sample$1Helper", "Sample$2Helper", "Sample$2",
+                "Sample$Nested", "Sample$Color", "Sample$Color$1", "Sample$Color$2")));
+    }
+
+    public void testEnumConstantsAreNotMethods() {
+        Map<String, List<int[]>> methods = JavaMethodScanner.scan(SAMPLE);
+        assertFalse(methods.containsKey("Sample$Color#RED"));
+        assertFalse(methods.containsKey("Sample$Color#GREEN"));
+        assertFalse(methods.containsKey("Sample$Color#BLUE"));
+        assertTrue(methods.containsKey("Sample$Color#<init>"));
+    }
+
+    public void testCorrectLinesAreKept() {
+        MethodIndex index = new MethodIndex();
+        index.put("Sample.java", 1, SAMPLE);
+        for (StackTraceElement frame : frames) {
+            SourceLocation sl = new SourceLocation(frame.getClassName() + "." + frame.getMethodName(), "Sample.java", frame.getLineNumber());
+            assertEquals(frame.toString(), frame.getLineNumber(), index.resolveLine("Sample.java", sl));
+        }
+    }
+
+    private static boolean contains(List<int[]> ranges, int line) {
+        for (int[] range : ranges) {
+            if (line >= range[0] && line <= range[1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
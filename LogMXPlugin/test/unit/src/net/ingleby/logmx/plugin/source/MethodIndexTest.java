@@ -0,0 +1,103 @@
+/*
+* MIT License
+* 
+* Copyright (c) 2016 Graeme Ingleby - graeme@ingleby.net
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy
+* of this software and associated documentation files (the "Software"), to deal
+* in the Software without restriction, including without limitation the rights
+* to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the Software is
+* furnished to do so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+* FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+* OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+* SOFTWARE.
+*/
+package net.ingleby.logmx.plugin.source;
+
+import com.lightyosft.logmx.gotosource.business.SourceLocation;
+import java.util.Collections;
+import org.netbeans.junit.NbTestCase;
+
+public class MethodIndexTest extends NbTestCase {
+
+    private static final String PATH = "a/Foo.java";
+    private static final String SOURCE = ""
+            + "package a;\n"                            // 1
+            + "public class Foo {\n"                    // 2
+            + "    private int x = compute();\n"        // 3
+            + "    static int y = 1;\n"                 // 4
+            + "    public Foo() {\n"                    // 5
+            + "        x++;\n"                          // 6
+            + "    }\n"                                 // 7
+            + "    int compute() {\n"                   // 8
+            + "        return 42;\n"                    // 9
+            + "    }\n"                                 // 10
+            + "    void run() {\n"                      // 11
+            + "        compute();\n"                    // 12
+            + "    }\n"                                 // 13
+            + "}\n";                                    // 14
+
+    private MethodIndex index;
+
+    public MethodIndexTest(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        index = new MethodIndex();
+        index.put(PATH, 1, SOURCE);
+    }
+
+    public void testLineInsideMethodKept() {
+        assertEquals(12, resolve("a.Foo.run", 12));
+    }
+
+    public void testMissingLineMapsToDeclaration() {
+        assertEquals(11, resolve("a.Foo.run", -1));
+        assertEquals(5, resolve("a.Foo.<init>", -1));
+    }
+
+    public void testStaleLineMapsToDeclaration() {
+        assertEquals(11, resolve("a.Foo.run", 9));
+    }
+
+    public void testFieldInitializerLinesKept() {
+        assertEquals(3, resolve("a.Foo.<init>", 3));
+        assertEquals(4, resolve("a.Foo.<clinit>", 4));
+    }
+
+    public void testConstructorLineInsideOtherMethodIsStale() {
+        assertEquals(5, resolve("a.Foo.<init>", 12));
+    }
+
+    public void testEnclosingClassFallbackKeepsLine() {
+        assertEquals(9, resolve("a.Foo$1.run", 9));
+        assertEquals(11, resolve("a.Foo$1.run", -1));
+    }
+
+    public void testUnindexedFileKeepsLine() {
+        assertEquals(7, index.resolveLine("b/Bar.java", new SourceLocation("b.Bar.run", "Bar.java", 7)));
+    }
+
+    public void testRetainAll() {
+        index.put("b/Bar.java", 1, SOURCE);
+        index.retainAll(Collections.singleton("b/Bar.java"));
+        assertEquals(1, index.size());
+        assertFalse(index.isCurrent(PATH, 1));
+        assertTrue(index.isCurrent("b/Bar.java", 1));
+    }
+
+    private int resolve(String method, int line) {
+        return index.resolveLine(PATH, new SourceLocation(method, "Foo.java", line));
+    }
+}
@@ -0,0 +1,48 @@
+/*
+* MIT License
+* 
+* Copyright (c) 2016 Graeme Ingleby - graeme@ingleby.net
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy
+* of this software and associated documentation files (the "Software"), to deal
+* in the Software without restriction, including without limitation the rights
+* to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the Software is
+* furnished to do so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+* FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+* OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+* SOFTWARE.
+*/
+package net.ingleby.logmx.plugin.source;
+
+import com.lightyosft.logmx.gotosource.business.SourceLocation;
+import org.netbeans.junit.NbTestCase;
+
+public class SourcePathsTest extends NbTestCase {
+
+    public SourcePathsTest(String name) {
+        super(name);
+    }
+
+    public void testJavaFrame() {
+        assertEquals("a/b/Foo.java", SourcePaths.sourcePath(new SourceLocation("a.b.Foo$1.run", "Foo.java", 3)));
+    }
+
+    public void testOtherLanguagesKeepFileName() {
+        assertEquals("a/b/Script.groovy", SourcePaths.sourcePath(new SourceLocation("a.b.Script.run", "Script.groovy", 3)));
+        assertEquals("a/b/Util.kt", SourcePaths.sourcePath(new SourceLocation("a.b.UtilKt.run", "Util.kt", 3)));
+    }
+
+    public void testUnknownFileFallsBackToTopLevelClass() {
+        assertEquals("a/b/Foo.java", SourcePaths.sourcePath(new SourceLocation("a.b.Foo$Bar.run", "", -1)));
+        assertEquals("a/b/Foo.java", SourcePaths.sourcePath(new SourceLocation("a.b.Foo$Bar.run", null, -1)));
+    }
+}